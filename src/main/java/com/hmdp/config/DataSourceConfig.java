@@ -0,0 +1,121 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.ReadWriteRoutingInterceptor;
+import com.hmdp.utils.RoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.Data;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 读写分离：spring.datasource为主库，hmdp.datasource.replicas为从库，未配置从库时所有语句都走主库
+ */
+@Configuration
+@EnableConfigurationProperties(DataSourceProperties.class)
+public class DataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("hmdp.datasource")
+    public ReplicaProperties replicaProperties() {
+        return new ReplicaProperties();
+    }
+
+    /**
+     * 路由数据源只在dataSource中创建，不单独注册为DataSource类型的bean，
+     * 否则会被spring boot当作独立的数据源初始化，与正在创建的dataSource形成循环依赖
+     */
+    private RoutingDataSource routingDataSource;
+
+    /**
+     * 延迟到执行第一条语句时才真正获取连接，此时已经知道是否在事务中、是否为写语句
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(DataSourceProperties properties, ReplicaProperties replicaProperties) {
+        HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        primary.setPoolName("primary");
+        List<DataSource> replicas = new ArrayList<>();
+        for (int i = 0; i < replicaProperties.getReplicas().size(); i++) {
+            Replica replica = replicaProperties.getReplicas().get(i);
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setPoolName("replica-" + i);
+            dataSource.setDriverClassName(properties.determineDriverClassName());
+            dataSource.setJdbcUrl(replica.getUrl());
+            // 从库账号默认与主库相同
+            dataSource.setUsername(replica.getUsername() == null ? properties.determineUsername() : replica.getUsername());
+            dataSource.setPassword(replica.getPassword() == null ? properties.determinePassword() : replica.getPassword());
+            dataSource.setReadOnly(true);
+            // 从库不可用时尽快失败，由健康检查将其摘除
+            dataSource.setConnectionTimeout(replicaProperties.getConnectionTimeoutMillis());
+            replicas.add(dataSource);
+        }
+        routingDataSource = new RoutingDataSource(primary, replicas,
+                replicaProperties.getStickySeconds(), replicaProperties.getMaxLagSeconds());
+        routingDataSource.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    @Bean
+    public ReadWriteRoutingInterceptor readWriteRoutingInterceptor(DataSource dataSource) {
+        return new ReadWriteRoutingInterceptor(routingOf(dataSource));
+    }
+
+    /**
+     * 定期检查从库的连通性和复制延迟
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void checkReplicas() {
+        if (routingDataSource != null) {
+            routingDataSource.checkReplicas();
+        }
+    }
+
+    /**
+     * dataSource先于本配置类销毁，此时已经没有语句在执行，关闭所有连接池
+     */
+    @PreDestroy
+    public void closeDataSources() {
+        if (routingDataSource != null) {
+            routingDataSource.close();
+        }
+    }
+
+    private static RoutingDataSource routingOf(DataSource dataSource) {
+        return (RoutingDataSource) ((LazyConnectionDataSourceProxy) dataSource).getTargetDataSource();
+    }
+
+    @Data
+    public static class ReplicaProperties {
+        /**
+         * 从库列表
+         */
+        private List<Replica> replicas = new ArrayList<>();
+        /**
+         * 用户写入后，其查询继续走主库的时间，应大于正常的复制延迟
+         */
+        private long stickySeconds = 5;
+        /**
+         * 复制延迟超过该值的从库不再接收查询
+         */
+        private long maxLagSeconds = 3;
+        private long connectionTimeoutMillis = 1000;
+    }
+
+    @Data
+    public static class Replica {
+        private String url;
+        private String username;
+        private String password;
+    }
+}
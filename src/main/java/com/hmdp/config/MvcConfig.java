@@ -1,19 +1,43 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
+import com.hmdp.utils.ClientIpResolver;
+import com.hmdp.utils.LocalRateLimiter;
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.RateLimitInterceptor;
+import com.hmdp.utils.LoginSessions;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SeckillSoldOutInterceptor;
+import com.hmdp.utils.SeckillStockClient;
+import com.hmdp.utils.SlidingWindowRateLimiter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.Set;
 
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private LocalRateLimiter localRateLimiter;
+
+    @Resource
+    private LoginSessions loginSessions;
+
+    @Resource
+    private SlidingWindowRateLimiter slidingWindowRateLimiter;
+
+    @Resource
+    private ClientIpResolver clientIpResolver;
+
+    @Resource
+    private SeckillStockClient seckillStockClient;
+
+    @Value("${hmdp.admin.user-ids:}")
+    private Set<Long> adminIds;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
@@ -23,14 +47,29 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/user/code",
                         "/user/login",
                         "/blog/hot",
+                        "/blog-comments/of/blog",
+                        "/blog-comments/hot/**",
                         "/shop/**",
                         "/shop-type/**",
-                        "/upload/**",
+                        "/upload/blogs/**",
+                        "/upload/blog/best",
                         "/voucher/**"
                 ).order(1);
 
+        // 管理员拦截器，在登录拦截器之后执行
+        registry.addInterceptor(new AdminInterceptor(adminIds))
+                .addPathPatterns("/admin/**").order(1);
+
+        // 秒杀售罄拦截器，在限流之前执行，已售罄时不消耗限流配额
+        registry.addInterceptor(new SeckillSoldOutInterceptor(seckillStockClient))
+                .addPathPatterns("/voucher-order/seckill/*").order(2);
+
+        // 限流拦截器，在识别出用户之后执行，按@RateLimit限流
+        registry.addInterceptor(new RateLimitInterceptor(localRateLimiter, slidingWindowRateLimiter, clientIpResolver))
+                .addPathPatterns("/**").order(3);
+
         // 刷新令牌拦截器
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate))
+        registry.addInterceptor(new RefreshTokenInterceptor(loginSessions))
                 .addPathPatterns("/**").order(0);
     }
 
@@ -2,15 +2,26 @@ package com.hmdp.config;
 
 import com.baomidou.mybatisplus.annotation.DbType;
 import com.baomidou.mybatisplus.extension.plugins.MybatisPlusInterceptor;
+import com.baomidou.mybatisplus.extension.plugins.inner.DynamicTableNameInnerInterceptor;
 import com.baomidou.mybatisplus.extension.plugins.inner.PaginationInnerInterceptor;
+import com.hmdp.utils.OrderSharding;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.Collections;
+
 @Configuration
 public class MybatisConfig {
     @Bean
-    public MybatisPlusInterceptor mybatisPlusInterceptor() {
+    public MybatisPlusInterceptor mybatisPlusInterceptor(OrderSharding orderSharding) {
         MybatisPlusInterceptor interceptor = new MybatisPlusInterceptor();
+        // 订单分表时替换表名，需要在分页之前，分页插件生成的count语句同样使用分表；不分表时不解析sql
+        if (orderSharding.getShards() > 1) {
+            DynamicTableNameInnerInterceptor dynamicTableName = new DynamicTableNameInnerInterceptor();
+            dynamicTableName.setTableNameHandlerMap(Collections.singletonMap(OrderSharding.TABLE,
+                    (sql, tableName) -> orderSharding.tableName(tableName)));
+            interceptor.addInnerInterceptor(dynamicTableName);
+        }
         interceptor.addInnerInterceptor(new PaginationInnerInterceptor(DbType.MYSQL));
         return interceptor;
     }
@@ -0,0 +1,52 @@
+package com.hmdp.config;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class RedisConfig {
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // 消息在固定大小的线程池中处理，默认的执行器会为每条消息创建一个线程
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(2);
+        executor.setMaxPoolSize(2);
+        executor.setQueueCapacity(10000);
+        executor.setThreadNamePrefix("redis-listener-");
+        executor.setDaemon(true);
+        executor.initialize();
+        container.setTaskExecutor(executor);
+        return container;
+    }
+
+    /**
+     * executePipelined默认每条命令都写一次socket，改为缓冲一定数量的命令后再写，批量回填、批量查询时减少系统调用。
+     * 普通命令仍使用共享的原生连接，不受影响
+     */
+    @Bean
+    public static BeanPostProcessor lettucePipeliningCustomizer(
+            @Value("${hmdp.redis.pipelining-flush-threshold:256}") int flushThreshold) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+                if (bean instanceof LettuceConnectionFactory) {
+                    LettuceConnectionFactory factory = (LettuceConnectionFactory) bean;
+                    factory.setShareNativeConnection(true);
+                    factory.setPipeliningFlushPolicy(LettuceConnection.PipeliningFlushPolicy.buffered(flushThreshold));
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,51 @@
+package com.hmdp.controller;
+
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.RateLimit;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * 商铺批量管理接口，/admin/**下的接口需要登录，且只有配置的管理员可以访问
+ */
+@RestController
+@RequestMapping("/admin/shop")
+public class AdminShopController {
+
+    @Resource
+    private IShopService shopService;
+
+    /**
+     * 批量导入商铺，请求体为CSV（Content-Type: text/csv，首行为表头）或NDJSON（每行一个商铺），流式读取，不限制大小。
+     * 没有id的行新增，有id的行按id更新，id不存在时以该id新增
+     * @return 导入结果
+     */
+    @PostMapping("/import")
+    @RateLimit(permits = 1, period = 10, mode = RateLimit.Mode.CLUSTER)
+    public Result importShops(HttpServletRequest request) throws IOException {
+        boolean csv = StrUtil.containsIgnoreCase(request.getContentType(), "csv");
+        return Result.ok(shopService.importShops(request.getInputStream(), csv));
+    }
+
+    /**
+     * 导出全部商铺，每行一个JSON对象
+     */
+    @GetMapping("/export")
+    @RateLimit(permits = 1, period = 10, mode = RateLimit.Mode.CLUSTER)
+    public void exportShops(HttpServletResponse response) throws IOException {
+        response.setContentType("application/x-ndjson;charset=UTF-8");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"shops.ndjson\"");
+        shopService.exportShops(response.getOutputStream());
+    }
+}
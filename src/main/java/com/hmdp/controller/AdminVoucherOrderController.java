@@ -0,0 +1,33 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IVoucherOrderService;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * 订单管理接口，/admin/**下的接口需要登录，且只有配置的管理员可以访问
+ */
+@RestController
+@RequestMapping("/admin/voucher-order")
+public class AdminVoucherOrderController {
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    /**
+     * 确认订单状态，只允许 未支付->已支付、已支付->已核销、退款中->已退款，供支付回调、商家核销和退款完成使用
+     * @param id 订单id
+     * @param status 目标状态
+     * @return 无
+     */
+    @PutMapping("/status/{id}/{status}")
+    public Result confirmStatus(@PathVariable("id") Long id, @PathVariable("status") Integer status) {
+        return voucherOrderService.confirmStatus(id, status);
+    }
+}
@@ -1,9 +1,12 @@
 package com.hmdp.controller;
 
 
-import org.springframework.web.bind.annotation.RequestMapping;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.BlogComments;
+import com.hmdp.service.IBlogCommentsService;
+import org.springframework.web.bind.annotation.*;
 
-import org.springframework.web.bind.annotation.RestController;
+import javax.annotation.Resource;
 
 /**
  * <p>
@@ -17,4 +20,50 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/blog-comments")
 public class BlogCommentsController {
 
+    @Resource
+    private IBlogCommentsService blogCommentsService;
+
+    /**
+     * 发表评论
+     * @param comment 评论内容，包含博客id、回复的评论id
+     * @return 评论id
+     */
+    @PostMapping
+    public Result saveComment(@RequestBody BlogComments comment) {
+        return blogCommentsService.saveComment(comment);
+    }
+
+    /**
+     * 滚动分页查询博客的评论，按时间倒序
+     * @param blogId 博客id
+     * @param lastId 上一页最后一条评论的id，查询第一页时不传
+     * @return 评论列表
+     */
+    @GetMapping("/of/blog")
+    public Result queryCommentsOfBlog(
+            @RequestParam("blogId") Long blogId,
+            @RequestParam(value = "lastId", required = false) Long lastId
+    ) {
+        return blogCommentsService.queryCommentsOfBlog(blogId, lastId);
+    }
+
+    /**
+     * 查询博客的热门评论
+     * @param blogId 博客id
+     * @return 点赞数最多的评论列表
+     */
+    @GetMapping("/hot/{blogId}")
+    public Result queryHotComments(@PathVariable("blogId") Long blogId) {
+        return blogCommentsService.queryHotComments(blogId);
+    }
+
+    /**
+     * 评论点赞
+     * @param id 评论id
+     * @return 无
+     */
+    @PutMapping("/like/{id}")
+    public Result likeComment(@PathVariable("id") Long id) {
+        return blogCommentsService.likeComment(id);
+    }
 }
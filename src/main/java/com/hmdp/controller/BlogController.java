@@ -8,6 +8,7 @@ import com.hmdp.entity.Blog;
 import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.RateLimit;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.web.bind.annotation.*;
@@ -64,6 +65,8 @@ public class BlogController {
     }
 
     @GetMapping("/hot")
+    @RateLimit(permits = 1000)
+    @RateLimit(scope = RateLimit.Scope.IP, permits = 20)
     public Result queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
         // 根据用户查询
         Page<Blog> page = blogService.query()
@@ -6,10 +6,15 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.ResponseCache;
 import com.hmdp.utils.SystemConstants;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -26,15 +31,19 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private ResponseCache responseCache;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-
-        return shopService.queryById(id);
+    public ResponseEntity<byte[]> queryShopById(@PathVariable("id") Long id, HttpServletRequest request) {
+        // 直接输出缓存的响应体
+        return responseCache.serve(request, RedisConstants.CACHE_SHOP_KEY + id,
+                RedisConstants.CACHE_RESP_TTL, TimeUnit.MINUTES, () -> shopService.queryById(id));
     }
 
     /**
@@ -1,13 +1,17 @@
 package com.hmdp.controller;
 
 
-import com.hmdp.dto.Result;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.ResponseCache;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -23,10 +27,14 @@ public class ShopTypeController {
     @Resource
     private IShopTypeService typeService;
 
+    @Resource
+    private ResponseCache responseCache;
+
     @GetMapping("list")
-    public Result queryTypeList() {
+    public ResponseEntity<byte[]> queryTypeList(HttpServletRequest request) {
 
-        return typeService.queryTypeList();
+        return responseCache.serve(request, RedisConstants.CACHE_SHOP_TYPE_KEY,
+                RedisConstants.CACHE_RESP_TTL, TimeUnit.MINUTES, typeService::queryTypeList);
 //        List<ShopType> typeList = typeService
 //                .query().orderByAsc("sort").list();
 //        return Result.ok(typeList);
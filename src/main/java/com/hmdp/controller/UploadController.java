@@ -1,63 +1,86 @@
 package com.hmdp.controller;
 
-import cn.hutool.core.io.FileUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.Result;
-import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.ImageStore;
+import com.hmdp.utils.ImageThumbnailer;
+import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.HandlerMapping;
 
-import java.io.File;
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.UUID;
 
 @Slf4j
 @RestController
 @RequestMapping("upload")
 public class UploadController {
 
+    @Resource
+    private ImageStore imageStore;
+
+    @Resource
+    private ImageThumbnailer imageThumbnailer;
+
     @PostMapping("blog")
     public Result uploadImage(@RequestParam("file") MultipartFile image) {
         try {
-            // 获取原始文件名称
-            String originalFilename = image.getOriginalFilename();
-            // 生成新文件名
-            String fileName = createNewFileName(originalFilename);
-            // 保存文件
-            image.transferTo(new File(SystemConstants.IMAGE_UPLOAD_DIR, fileName));
+            // 流式保存文件，相同内容只保存一份
+            String fileName = imageStore.save(UserHolder.getUser().getId(), image);
+            if (fileName == null) {
+                return Result.fail("不支持的图片格式");
+            }
             // 返回结果
             log.debug("文件上传成功，{}", fileName);
+            // 异步生成缩略图
+            imageThumbnailer.submit(fileName);
             return Result.ok(fileName);
         } catch (IOException e) {
             throw new RuntimeException("文件上传失败", e);
         }
     }
 
-    @GetMapping("/blog/delete")
-    public Result deleteBlogImg(@RequestParam("name") String filename) {
-        File file = new File(SystemConstants.IMAGE_UPLOAD_DIR, filename);
-        if (file.isDirectory()) {
-            return Result.fail("错误的文件名称");
-        }
-        FileUtil.del(file);
-        return Result.ok();
+    /**
+     * 读取博客图片，支持Range断点续传和浏览器缓存
+     */
+    @GetMapping("/blogs/**")
+    public void queryBlogImg(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String path = (String) request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
+        imageStore.serve(StrUtil.removePrefix(path, "/upload"), request, response);
     }
 
-    private String createNewFileName(String originalFilename) {
-        // 获取后缀
-        String suffix = StrUtil.subAfter(originalFilename, ".", true);
-        // 生成目录
-        String name = UUID.randomUUID().toString();
-        int hash = name.hashCode();
-        int d1 = hash & 0xF;
-        int d2 = (hash >> 4) & 0xF;
-        // 判断目录是否存在
-        File dir = new File(SystemConstants.IMAGE_UPLOAD_DIR, StrUtil.format("/blogs/{}/{}", d1, d2));
-        if (!dir.exists()) {
-            dir.mkdirs();
+    /**
+     * 按期望宽度读取最合适的博客图片，缩略图未生成时返回原图
+     * @param name 原图文件名
+     * @param width 期望宽度，不传时返回原图
+     */
+    @GetMapping("/blog/best")
+    public void queryBestBlogImg(
+            @RequestParam("name") String name,
+            @RequestParam(value = "width", required = false) Integer width,
+            HttpServletRequest request, HttpServletResponse response
+    ) throws IOException {
+        String accept = request.getHeader(HttpHeaders.ACCEPT);
+        boolean acceptWebp = accept != null && accept.contains("image/webp");
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        String variant = imageThumbnailer.bestVariant(name, width, acceptWebp);
+        // 缩略图还未生成时返回的是原图，只短时间缓存，生成后浏览器能拿到缩略图
+        String cacheControl = width != null && variant.equals(name) ? "public, max-age=60" : ImageStore.CACHE_CONTROL_IMMUTABLE;
+        imageStore.serve(variant, cacheControl, request, response);
+    }
+
+    @DeleteMapping("/blog")
+    public Result deleteBlogImg(@RequestParam("name") String filename) {
+        // 释放当前用户持有的引用，没有引用时异步删除文件及其缩略图
+        Long userId = UserHolder.getUser().getId();
+        if (!imageStore.release(userId, filename, imageThumbnailer.variantNames(filename))) {
+            return Result.fail("图片不存在或无权删除");
         }
-        // 生成文件名
-        return StrUtil.format("/blogs/{}/{}/{}.{}", d1, d2, name, suffix);
+        return Result.ok();
     }
 }
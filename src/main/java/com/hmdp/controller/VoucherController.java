@@ -4,9 +4,14 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.ResponseCache;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -23,6 +28,9 @@ public class VoucherController {
     @Resource
     private IVoucherService voucherService;
 
+    @Resource
+    private ResponseCache responseCache;
+
     /**
      * 新增普通券
      * @param voucher 优惠券信息
@@ -30,7 +38,7 @@ public class VoucherController {
      */
     @PostMapping
     public Result addVoucher(@RequestBody Voucher voucher) {
-        voucherService.save(voucher);
+        voucherService.addVoucher(voucher);
         return Result.ok(voucher.getId());
     }
 
@@ -51,7 +59,9 @@ public class VoucherController {
      * @return 优惠券列表
      */
     @GetMapping("/list/{shopId}")
-    public Result queryVoucherOfShop(@PathVariable("shopId") Long shopId) {
-       return voucherService.queryVoucherOfShop(shopId);
+    public ResponseEntity<byte[]> queryVoucherOfShop(@PathVariable("shopId") Long shopId, HttpServletRequest request) {
+        // 响应中包含实时的秒杀库存，只缓存很短的时间
+        return responseCache.serve(request, RedisConstants.CACHE_VOUCHER_LIST_KEY + shopId,
+                RedisConstants.CACHE_RESP_STOCK_TTL, TimeUnit.SECONDS, () -> voucherService.queryVoucherOfShop(shopId));
     }
 }
@@ -2,10 +2,11 @@ package com.hmdp.controller;
 
 
 import com.hmdp.dto.Result;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RateLimit;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
 
 /**
  * <p>
@@ -18,8 +19,42 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 @RequestMapping("/voucher-order")
 public class VoucherOrderController {
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    /**
+     * 秒杀下单，本地已标记售罄的券由SeckillSoldOutInterceptor在限流之前直接返回
+     */
     @PostMapping("seckill/{id}")
+    @RateLimit(permits = 2000)
+    @RateLimit(scope = RateLimit.Scope.USER, mode = RateLimit.Mode.CLUSTER, permits = 5, period = 10)
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
-        return Result.fail("功能未完成");
+        return voucherOrderService.seckillVoucher(voucherId);
+    }
+
+    /**
+     * 滚动分页查询我的订单，按下单时间倒序
+     * @param status 订单状态，不传时查询全部状态
+     * @param lastId 上一页最后一个订单的id，查询第一页时不传
+     * @return 订单列表
+     */
+    @GetMapping("/of/me")
+    public Result queryMyOrders(
+            @RequestParam(value = "status", required = false) Integer status,
+            @RequestParam(value = "lastId", required = false) Long lastId
+    ) {
+        return voucherOrderService.queryMyOrders(status, lastId);
+    }
+
+    /**
+     * 用户修改自己的订单状态，只允许 未支付->已取消、已支付->退款中
+     * @param id 订单id
+     * @param status 目标状态
+     * @return 无
+     */
+    @PutMapping("/status/{id}/{status}")
+    public Result updateStatus(@PathVariable("id") Long id, @PathVariable("status") Integer status) {
+        return voucherOrderService.updateStatus(id, status);
     }
 }
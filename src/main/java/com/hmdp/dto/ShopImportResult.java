@@ -0,0 +1,26 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class ShopImportResult {
+    /**
+     * 新增的商铺数
+     */
+    private int inserted;
+    /**
+     * 按id更新的商铺数
+     */
+    private int updated;
+    /**
+     * 失败的行数
+     */
+    private int failed;
+    /**
+     * 失败原因，只保留前若干条
+     */
+    private List<String> errors = new ArrayList<>();
+}
@@ -2,6 +2,10 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +17,23 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface ShopMapper extends BaseMapper<Shop> {
 
+    /**
+     * 批量累加商铺计数器，shop中的sold、comments、score字段为增量
+     */
+    int incrementCounters(@Param("deltas") List<Shop> deltas);
+
+    /**
+     * 多行插入新商铺，回填自增id
+     */
+    int insertBatch(@Param("shops") List<Shop> shops);
+
+    /**
+     * 多行插入或更新指定id的商铺，不覆盖销量、评论数、评分
+     */
+    int upsertBatch(@Param("shops") List<Shop> shops);
+
+    /**
+     * 流式读取全部商铺，MySQL驱动逐行返回结果，内存占用与数据量无关。需要在SqlSession关闭前读取完毕
+     */
+    Cursor<Shop> scanAll();
 }
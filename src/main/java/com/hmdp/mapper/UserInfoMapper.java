@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.UserInfo;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,8 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface UserInfoMapper extends BaseMapper<UserInfo> {
 
+    /**
+     * 批量写入粉丝数、关注数，用户详情不存在时新建
+     */
+    int upsertCounters(@Param("infos") List<UserInfo> infos);
 }
@@ -13,4 +13,8 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 查询秒杀券的时间信息，优先使用本地缓存；返回的库存不是实时的
+     */
+    SeckillVoucher queryCached(Long voucherId);
 }
@@ -1,9 +1,14 @@
 package com.hmdp.service;
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopImportResult;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 /**
  * <p>
  *  服务类
@@ -17,4 +22,16 @@ public interface IShopService extends IService<Shop> {
     Result queryById(Long id);
 
     Result update(Shop shop);
+
+    void incrSold(Long id, int delta);
+
+    void incrComments(Long id, int delta);
+
+    void incrScore(Long id, int delta);
+
+    void flushCounters();
+
+    ShopImportResult importShops(InputStream in, boolean csv) throws IOException;
+
+    void exportShops(OutputStream out) throws IOException;
 }
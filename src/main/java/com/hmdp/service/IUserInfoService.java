@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.UserInfo;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,11 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IUserInfoService extends IService<UserInfo> {
 
+    Result queryUserInfo(Long userId);
+
+    void incrFans(Long userId, int delta);
+
+    void incrFollowee(Long userId, int delta);
+
+    void flushCounters();
 }
@@ -1,11 +1,34 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
 import com.hmdp.service.IBlogCommentsService;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IBlogService;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +40,177 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
 
+    private static final DefaultRedisScript<Long> ADD_SCRIPT;
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+    private static final DefaultRedisScript<Long> POPULATE_SCRIPT;
+    static {
+        ADD_SCRIPT = new DefaultRedisScript<>();
+        ADD_SCRIPT.setLocation(new ClassPathResource("lua/comment_add.lua"));
+        ADD_SCRIPT.setResultType(Long.class);
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("lua/comment_like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+        POPULATE_SCRIPT = new DefaultRedisScript<>();
+        POPULATE_SCRIPT.setLocation(new ClassPathResource("lua/comment_populate.lua"));
+        POPULATE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 博客没有评论时写入缓存的空标记，score为-1，不会出现在按score查询的结果中
+     */
+    private static final String EMPTY_MARKER = "";
+    private static final String EMPTY_MARKER_SCORE = "-1";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IBlogService blogService;
+
+    @Override
+    public Result saveComment(BlogComments comment) {
+        // 1. 校验参数
+        if (comment.getBlogId() == null || StrUtil.isBlank(comment.getContent())) {
+            return Result.fail("评论内容不能为空");
+        }
+        // 2. 保存评论
+        UserDTO user = UserHolder.getUser();
+        comment.setId(null);
+        comment.setUserId(user.getId());
+        comment.setParentId(comment.getParentId() == null ? 0L : comment.getParentId());
+        comment.setAnswerId(comment.getAnswerId() == null ? 0L : comment.getAnswerId());
+        comment.setLiked(0);
+        comment.setStatus(false);
+        comment.setCreateTime(LocalDateTime.now());
+        save(comment);
+
+        // 3. 写入评论缓存
+        Long blogId = comment.getBlogId();
+        stringRedisTemplate.execute(ADD_SCRIPT,
+                Arrays.asList(BLOG_COMMENTS_KEY + blogId, BLOG_COMMENTS_HOT_KEY + blogId, BLOG_COMMENTS_DIRTY_KEY + blogId),
+                comment.getId().toString(), toCacheJson(comment),
+                String.valueOf(SystemConstants.COMMENTS_CACHE_SIZE), BLOG_COMMENTS_DIRTY_TTL.toString());
+
+        // 4. 博客评论数+1，异步批量写回
+        blogService.incrComments(blogId, 1);
+
+        // 返回id
+        return Result.ok(comment.getId());
+    }
+
+    @Override
+    public Result queryCommentsOfBlog(Long blogId, Long lastId) {
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        String key = BLOG_COMMENTS_KEY + blogId;
+
+        // 1. 从缓存中按id倒序滚动查询
+        double max = lastId == null ? Double.POSITIVE_INFINITY : lastId - 1;
+        Set<String> cached = stringRedisTemplate.opsForZSet().reverseRangeByScore(key, 1, max, 0, size);
+        Long total = stringRedisTemplate.opsForZSet().zCard(key);
+        if (cached != null && total != null && total > 0) {
+            // 2. 命中，数量足够，或者缓存中已包含该博客的全部评论（包括只有空标记的情况），直接返回
+            if (cached.size() == size || total < SystemConstants.COMMENTS_CACHE_SIZE) {
+                return Result.ok(fromCacheJson(cached));
+            }
+        }
+
+        // 3. 未命中或超出缓存范围，查询数据库
+        if (lastId == null) {
+            // 第一页，回填最新的评论
+            List<BlogComments> latest = queryLatestFromDb(blogId, null, SystemConstants.COMMENTS_CACHE_SIZE);
+            populate(key, blogId, latest, BlogComments::getId);
+            return Result.ok(latest.stream().limit(size).collect(Collectors.toList()));
+        }
+        return Result.ok(queryLatestFromDb(blogId, lastId, size));
+    }
+
+    @Override
+    public Result queryHotComments(Long blogId) {
+        String key = BLOG_COMMENTS_HOT_KEY + blogId;
+
+        // 1. 从缓存中查询点赞数最多的评论
+        Set<String> cached = stringRedisTemplate.opsForZSet()
+                .reverseRangeByScore(key, 0, Double.POSITIVE_INFINITY, 0, SystemConstants.HOT_COMMENTS_SIZE);
+        if (cached != null && (!cached.isEmpty() || Boolean.TRUE.equals(stringRedisTemplate.hasKey(key)))) {
+            // 只有空标记时返回空列表
+            return Result.ok(fromCacheJson(cached));
+        }
+
+        // 2. 未命中，查询数据库并回填
+        List<BlogComments> hot = visibleQuery(blogId)
+                .orderByDesc("liked").orderByDesc("id")
+                .last("LIMIT " + SystemConstants.COMMENTS_CACHE_SIZE)
+                .list();
+        populate(key, blogId, hot, c -> c.getLiked() == null ? 0L : c.getLiked().longValue());
+        return Result.ok(hot.stream().limit(SystemConstants.HOT_COMMENTS_SIZE).collect(Collectors.toList()));
+    }
+
+    @Override
+    public Result likeComment(Long id) {
+        // 1. 修改点赞数量
+        boolean success = update().setSql("liked = IFNULL(liked, 0) + 1").eq("id", id).update();
+        if (!success) {
+            return Result.fail("评论不存在");
+        }
+        // 2. 查询最新的评论，更新缓存
+        BlogComments comment = getById(id);
+        Long blogId = comment.getBlogId();
+        stringRedisTemplate.execute(LIKE_SCRIPT,
+                Arrays.asList(BLOG_COMMENTS_KEY + blogId, BLOG_COMMENTS_HOT_KEY + blogId, BLOG_COMMENTS_DIRTY_KEY + blogId),
+                id.toString(), toCacheJson(comment), comment.getLiked().toString(),
+                String.valueOf(SystemConstants.COMMENTS_CACHE_SIZE), BLOG_COMMENTS_DIRTY_TTL.toString());
+        return Result.ok();
+    }
+
+    private QueryChainWrapper<BlogComments> visibleQuery(Long blogId) {
+        // 状态为2的评论禁止查看
+        return query().eq("blog_id", blogId)
+                .and(w -> w.isNull("status").or().ne("status", 2));
+    }
+
+    private List<BlogComments> queryLatestFromDb(Long blogId, Long lastId, int limit) {
+        // 按id倒序滚动分页，避免offset深分页
+        return visibleQuery(blogId)
+                .lt(lastId != null, "id", lastId)
+                .orderByDesc("id")
+                .last("LIMIT " + limit)
+                .list();
+    }
+
+    private void populate(String key, Long blogId, List<BlogComments> comments, Function<BlogComments, Long> score) {
+        List<String> args = new ArrayList<>(comments.size() * 2 + 3);
+        args.add(String.valueOf(TimeUnit.MINUTES.toSeconds(BLOG_COMMENTS_TTL)));
+        if (comments.isEmpty()) {
+            // 没有评论同样缓存，避免每次查询都访问数据库
+            args.add(EMPTY_MARKER_SCORE);
+            args.add(EMPTY_MARKER);
+        }
+        for (BlogComments c : comments) {
+            args.add(score.apply(c).toString());
+            args.add(toCacheJson(c));
+        }
+        stringRedisTemplate.execute(POPULATE_SCRIPT,
+                Arrays.asList(key, BLOG_COMMENTS_DIRTY_KEY + blogId), args.toArray());
+    }
+
+    private String toCacheJson(BlogComments comment) {
+        // 更新时间每次点赞都会变化，不放入缓存
+        BlogComments copy = new BlogComments()
+                .setId(comment.getId())
+                .setUserId(comment.getUserId())
+                .setBlogId(comment.getBlogId())
+                .setParentId(comment.getParentId())
+                .setAnswerId(comment.getAnswerId())
+                .setContent(comment.getContent())
+                .setLiked(comment.getLiked() == null ? 0 : comment.getLiked())
+                .setStatus(comment.getStatus())
+                .setCreateTime(comment.getCreateTime());
+        return JSONUtil.toJsonStr(copy);
+    }
+
+    private List<BlogComments> fromCacheJson(Set<String> cached) {
+        return cached.stream()
+                .map(json -> JSONUtil.toBean(json, BlogComments.class))
+                .collect(Collectors.toList());
+    }
 }
@@ -1,11 +1,21 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.collection.ListUtil;
 import com.hmdp.entity.Blog;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CounterBuffer;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
 /**
  * <p>
  *  服务实现类
@@ -14,7 +24,49 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    /**
+     * 评论数量的增量缓冲，定时批量刷回数据库
+     */
+    private final CounterBuffer commentsBuffer = new CounterBuffer();
+
+    @Override
+    public void incrComments(Long id, int delta) {
+        commentsBuffer.add(id, delta);
+    }
+
+    @Override
+    @Scheduled(fixedDelay = 3000)
+    public void flushCounters() {
+        // 1. 取出累计的增量
+        Map<Long, Long> comments = commentsBuffer.drain();
+        if (comments.isEmpty()) {
+            return;
+        }
+        List<Blog> deltas = comments.entrySet().stream()
+                .map(e -> new Blog().setId(e.getKey()).setComments(e.getValue().intValue()))
+                .collect(Collectors.toList());
+
+        // 2. 分批刷回数据库
+        for (List<Blog> batch : ListUtil.partition(deltas, SystemConstants.COUNTER_FLUSH_BATCH_SIZE)) {
+            try {
+                getBaseMapper().incrementComments(batch);
+            } catch (Exception e) {
+                // 更新失败，增量放回缓冲，等待下一轮
+                log.error("博客评论数刷新失败，等待重试", e);
+                batch.forEach(d -> commentsBuffer.add(d.getId(), d.getComments()));
+            }
+        }
+    }
+
+    /**
+     * 停机前刷回缓冲中剩余的增量，避免每次重启、发布丢失最近一个周期的评论数
+     */
+    @PreDestroy
+    public void flushCountersOnShutdown() {
+        flushCounters();
+    }
 }
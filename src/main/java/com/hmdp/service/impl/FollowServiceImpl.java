@@ -1,11 +1,21 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Follow;
 import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserInfoService;
+import com.hmdp.utils.UserHolder;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+
+import static com.hmdp.utils.RedisConstants.FOLLOWS_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +27,61 @@ import org.springframework.stereotype.Service;
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IUserInfoService userInfoService;
+
+    @Override
+    public Result follow(Long followUserId, Boolean isFollow) {
+        // 1. 获取登录用户
+        Long userId = UserHolder.getUser().getId();
+        if (userId.equals(followUserId)) {
+            return Result.fail("不能关注自己");
+        }
+        String key = FOLLOWS_KEY + userId;
+
+        // 2. 判断到底是关注还是取关
+        if (Boolean.TRUE.equals(isFollow)) {
+            // 3. 关注，新增数据
+            Follow follow = new Follow();
+            follow.setUserId(userId);
+            follow.setFollowUserId(followUserId);
+            try {
+                save(follow);
+            } catch (DuplicateKeyException e) {
+                // 已经关注过了
+                return Result.ok();
+            }
+            stringRedisTemplate.opsForSet().add(key, followUserId.toString());
+            // 4. 更新关注数、粉丝数计数器，定时批量写回数据库
+            userInfoService.incrFollowee(userId, 1);
+            userInfoService.incrFans(followUserId, 1);
+        } else {
+            // 5. 取关，删除数据
+            boolean removed = remove(new QueryWrapper<Follow>()
+                    .eq("user_id", userId).eq("follow_user_id", followUserId));
+            if (!removed) {
+                return Result.ok();
+            }
+            stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
+            userInfoService.incrFollowee(userId, -1);
+            userInfoService.incrFans(followUserId, -1);
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result isFollow(Long followUserId) {
+        // 1. 获取登录用户
+        Long userId = UserHolder.getUser().getId();
+        // 2. 查询是否关注
+        Boolean isMember = stringRedisTemplate.opsForSet().isMember(FOLLOWS_KEY + userId, followUserId.toString());
+        if (Boolean.TRUE.equals(isMember)) {
+            return Result.ok(true);
+        }
+        Integer count = query().eq("user_id", userId).eq("follow_user_id", followUserId).count();
+        return Result.ok(count > 0);
+    }
 }
@@ -1,10 +1,43 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.OrderSharding;
+import com.hmdp.utils.RedisLockClient;
+import com.hmdp.utils.SeckillStockClient;
+import com.hmdp.utils.SystemConstants;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_LIST_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_LIST_TTL;
+import static com.hmdp.utils.RedisConstants.LOCK_SECKILL_RECONCILE_KEY;
 
 /**
  * <p>
@@ -14,7 +47,299 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2022-01-04
  */
+@Slf4j
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private SeckillStockClient seckillStockClient;
+
+    @Resource
+    private VoucherMapper voucherMapper;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Resource
+    private OrderSharding orderSharding;
+
+    @Resource
+    private RedisLockClient redisLockClient;
+
+    @Resource
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * 只读事务，核对时同一批券的库存和订单数在同一个快照中读取
+     */
+    private TransactionTemplate snapshotTemplate;
+
+    /**
+     * 即将开始和进行中的秒杀券，秒杀开始前预热，结束后清除
+     */
+    private final Map<Long, SeckillVoucher> localCache = new ConcurrentHashMap<>();
+
+    /**
+     * 当前节点已经预热过的秒杀券
+     */
+    private final Set<Long> warmedUp = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 上一轮核对观察到的redis库存和数据库库存，连续两轮相同且不一致时才修正，排除进行中的下单和取消
+     */
+    private Map<Long, StockObservation> observations = new HashMap<>();
+
+    /**
+     * 上一轮核对时 数据库库存 + 有效订单数，即初始库存，正常情况下不会变化
+     */
+    private final Map<Long, Long> initialStocks = new HashMap<>();
+
+    @PostConstruct
+    private void init() {
+        snapshotTemplate = new TransactionTemplate(transactionManager);
+        snapshotTemplate.setReadOnly(true);
+    }
+
+    @Override
+    public SeckillVoucher queryCached(Long voucherId) {
+        SeckillVoucher voucher = localCache.get(voucherId);
+        if (voucher != null) {
+            if (voucher.getEndTime().isAfter(LocalDateTime.now())) {
+                return voucher;
+            }
+            // 已经结束，不再保留在本地
+            localCache.remove(voucherId);
+            return voucher;
+        }
+        voucher = getById(voucherId);
+        // 只缓存尚未结束的秒杀券，结束后由清理任务移除
+        if (voucher != null && voucher.getEndTime().isAfter(LocalDateTime.now())) {
+            localCache.put(voucherId, voucher);
+        }
+        return voucher;
+    }
+
+    /**
+     * 秒杀开始前预热：加载库存到redis，预热本地缓存和商铺缓存；秒杀结束后清理并核对库存
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void warmUpAndTearDown() {
+        LocalDateTime now = LocalDateTime.now();
+
+        // 1. 预热即将开始的秒杀券
+        List<SeckillVoucher> upcoming = query()
+                .between("begin_time", now, now.plusMinutes(SystemConstants.SECKILL_WARM_UP_MINUTES))
+                .list();
+        List<SeckillVoucher> warming = upcoming.stream()
+                .filter(voucher -> warmedUp.add(voucher.getVoucherId()))
+                .collect(Collectors.toList());
+        if (!warming.isEmpty()) {
+            try {
+                warmUp(warming);
+            } catch (Exception e) {
+                // 下一轮重试
+                warming.forEach(voucher -> warmedUp.remove(voucher.getVoucherId()));
+                log.warn("秒杀券预热失败，数量：{}", warming.size(), e);
+            }
+        }
+
+        // 2. 清理已经结束的秒杀券
+        List<SeckillVoucher> ended = query()
+                .between("end_time", now.minusMinutes(SystemConstants.SECKILL_TEAR_DOWN_MINUTES), now)
+                .list();
+        for (SeckillVoucher voucher : ended) {
+            try {
+                tearDown(voucher);
+            } catch (Exception e) {
+                log.warn("秒杀券清理失败，voucherId：{}", voucher.getVoucherId(), e);
+            }
+        }
+
+        // 3. 移除本地已经结束的秒杀券，本节点错过了上面的清理窗口（例如停机）时也不会一直保留
+        localCache.values().removeIf(voucher -> !voucher.getEndTime().isAfter(now));
+        warmedUp.retainAll(localCache.keySet());
+    }
+
+    private void warmUp(List<SeckillVoucher> seckillVouchers) {
+        // 1. redis中没有库存时（例如redis重启）从数据库加载，开始前没有订单，数据库库存准确
+        for (SeckillVoucher seckillVoucher : seckillVouchers) {
+            Long voucherId = seckillVoucher.getVoucherId();
+            localCache.put(voucherId, seckillVoucher);
+            if (seckillStockClient.loadIfAbsent(voucherId, seckillVoucher.getStock())) {
+                log.info("秒杀库存已加载，voucherId：{}，库存：{}", voucherId, seckillVoucher.getStock());
+            }
+        }
+
+        // 2. 批量查询券所属的商铺和店铺的优惠券列表
+        Set<Long> shopIds = voucherService.listByIds(seckillVouchers.stream()
+                        .map(SeckillVoucher::getVoucherId)
+                        .collect(Collectors.toList()))
+                .stream()
+                .map(Voucher::getShopId)
+                .collect(Collectors.toSet());
+        if (shopIds.isEmpty()) {
+            return;
+        }
+        Map<String, Shop> shops = shopService.listByIds(shopIds).stream()
+                .collect(Collectors.toMap(shop -> CACHE_SHOP_KEY + shop.getId(), shop -> shop));
+        Map<String, List<Voucher>> voucherLists = shopIds.stream()
+                .collect(Collectors.toMap(shopId -> CACHE_VOUCHER_LIST_KEY + shopId,
+                        shopId -> voucherMapper.queryVoucherOfShop(shopId)));
+
+        // 3. 通过批量连接一次发送，刷新商铺缓存和店铺的优惠券列表缓存，保证秒杀期间不会过期
+        cacheClient.setAll(shops, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        cacheClient.setAll(voucherLists, CACHE_VOUCHER_LIST_TTL, TimeUnit.MINUTES);
+    }
+
+    private void tearDown(SeckillVoucher seckillVoucher) {
+        Long voucherId = seckillVoucher.getVoucherId();
+        localCache.remove(voucherId);
+        warmedUp.remove(voucherId);
+
+        // 删除redis中的库存，只有一个节点执行，并与数据库库存核对
+        Integer redisStock = seckillStockClient.unload(voucherId);
+        if (redisStock == null) {
+            return;
+        }
+        Integer dbStock = getById(voucherId).getStock();
+        if (!redisStock.equals(dbStock)) {
+            log.warn("秒杀结束，库存不一致，voucherId：{}，redis：{}，数据库：{}", voucherId, redisStock, dbStock);
+        } else {
+            log.info("秒杀结束，voucherId：{}，剩余库存：{}", voucherId, dbStock);
+        }
+    }
+
+    /**
+     * 核对redis库存、数据库库存和订单。按券id分批读取，不扫描整张订单表，不加锁；
+     * redis库存与数据库库存的差异连续两轮不变时，以数据库为准修正redis
+     */
+    @Scheduled(fixedDelay = 60000, initialDelay = 30000)
+    public void reconcileStock() {
+        // 同一时刻只有一个节点核对
+        ILock lock = redisLockClient.getLock(LOCK_SECKILL_RECONCILE_KEY);
+        if (!lock.tryLock(0, TimeUnit.SECONDS)) {
+            return;
+        }
+        try {
+            doReconcileStock();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void doReconcileStock() {
+        LocalDateTime since = LocalDateTime.now().minusDays(SystemConstants.SECKILL_RECONCILE_DAYS);
+        int size = SystemConstants.SECKILL_RECONCILE_CHUNK_SIZE;
+        Map<Long, StockObservation> current = new HashMap<>();
+        int checked = 0;
+        int drifted = 0;
+        int repaired = 0;
+        long totalDrift = 0;
+        long lastId = 0;
+        while (true) {
+            // 1. 按券id滚动读取一批近期的秒杀券，以及每张券的有效订单数
+            long cursor = lastId;
+            StockChunk snapshot = snapshotTemplate.execute(tx -> {
+                List<SeckillVoucher> vouchers = query()
+                        .gt("voucher_id", cursor)
+                        .ge("end_time", since)
+                        .orderByAsc("voucher_id")
+                        .last("LIMIT " + size)
+                        .list();
+                return new StockChunk(vouchers, vouchers.isEmpty() ? Collections.emptyMap() : countActiveOrders(vouchers));
+            });
+            List<SeckillVoucher> chunk = snapshot == null ? Collections.emptyList() : snapshot.getVouchers();
+            if (chunk.isEmpty()) {
+                break;
+            }
+            Map<Long, Long> sold = snapshot.getSold();
+            Map<Long, Integer> redisStocks = seckillStockClient.getStocks(chunk.stream()
+                    .map(SeckillVoucher::getVoucherId)
+                    .collect(Collectors.toList()));
+
+            for (SeckillVoucher voucher : chunk) {
+                Long voucherId = voucher.getVoucherId();
+                int dbStock = voucher.getStock();
+                checked++;
+
+                // 2. 数据库库存和订单在同一个事务中修改，两者之和应该保持不变
+                long initial = dbStock + sold.getOrDefault(voucherId, 0L);
+                Long lastInitial = initialStocks.put(voucherId, initial);
+                if (lastInitial != null && lastInitial != initial) {
+                    log.error("秒杀券数据库库存与订单不一致，voucherId：{}，库存+订单数：{} -> {}", voucherId, lastInitial, initial);
+                }
+
+                // 3. 比较redis库存和数据库库存
+                Integer redisStock = redisStocks.get(voucherId);
+                if (redisStock == null) {
+                    continue;
+                }
+                StockObservation observation = new StockObservation(redisStock, dbStock);
+                current.put(voucherId, observation);
+                int diff = dbStock - redisStock;
+                if (diff == 0) {
+                    continue;
+                }
+                drifted++;
+                totalDrift += Math.abs(diff);
+                if (!observation.equals(observations.get(voucherId))) {
+                    // 可能是进行中的下单或取消，下一轮确认
+                    continue;
+                }
+                // 4. 差异稳定存在，修正redis；修正以读取到的值为前提，重复执行不会重复修正
+                if (seckillStockClient.adjust(voucherId, diff)) {
+                    repaired++;
+                    log.warn("修正秒杀库存，voucherId：{}，redis：{} -> {}", voucherId, redisStock, dbStock);
+                }
+            }
+            if (chunk.size() < size) {
+                break;
+            }
+            lastId = chunk.get(chunk.size() - 1).getVoucherId();
+        }
+        observations = current;
+        initialStocks.keySet().retainAll(current.keySet());
+        log.info("秒杀库存核对完成，券数量：{}，不一致：{}，差异总量：{}，已修正：{}", checked, drifted, totalDrift, repaired);
+    }
+
+    /**
+     * 按券统计有效订单数，已取消（状态4）的订单已归还库存，不计入。订单按用户分表，需要累加所有分表
+     */
+    private Map<Long, Long> countActiveOrders(List<SeckillVoucher> vouchers) {
+        List<Long> voucherIds = vouchers.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList());
+        Map<Long, Long> sold = new HashMap<>(voucherIds.size());
+        for (int shard = 0; shard < orderSharding.getShards(); shard++) {
+            List<Map<String, Object>> rows = orderSharding.on(shard, () -> voucherOrderMapper.selectMaps(
+                    new QueryWrapper<VoucherOrder>()
+                            .select("voucher_id", "COUNT(*) AS sold")
+                            .in("voucher_id", voucherIds)
+                            .ne("status", 4)
+                            .groupBy("voucher_id")));
+            for (Map<String, Object> row : rows) {
+                sold.merge(((Number) row.get("voucher_id")).longValue(), ((Number) row.get("sold")).longValue(), Long::sum);
+            }
+        }
+        return sold;
+    }
+
+    @Value
+    private static class StockChunk {
+        List<SeckillVoucher> vouchers;
+        Map<Long, Long> sold;
+    }
+
+    @Value
+    private static class StockObservation {
+        int redisStock;
+        int dbStock;
+    }
 }
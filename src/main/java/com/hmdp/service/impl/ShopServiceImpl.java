@@ -1,18 +1,43 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.collection.ListUtil;
+import cn.hutool.core.text.csv.CsvReadConfig;
+import cn.hutool.core.text.csv.CsvUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopImportResult;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CounterBuffer;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -22,6 +47,7 @@ import java.util.concurrent.TimeUnit;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
@@ -31,6 +57,27 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Resource
+    private SqlSessionFactory sqlSessionFactory;
+
+    /**
+     * 销量、评论数、评分的增量缓冲，定时批量刷回数据库
+     */
+    private final CounterBuffer soldBuffer = new CounterBuffer();
+    private final CounterBuffer commentsBuffer = new CounterBuffer();
+    private final CounterBuffer scoreBuffer = new CounterBuffer();
+
+    /**
+     * 商铺增量连续刷回失败的次数，key为商铺id
+     */
+    private final Map<Long, Integer> flushFailures = new ConcurrentHashMap<>();
+
     @Override
     public Result queryById(Long id) {
 
@@ -68,13 +115,258 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
         // 1. 更新数据库
         updateById(shop);
-        // 2. 删除缓存
-        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + shop.getId());
+        // 2. 事务提交后删除缓存，并延迟二次删除
+        cacheInvalidator.evictAfterCommit(RedisConstants.CACHE_SHOP_KEY + shop.getId());
 
         return Result.ok();
 
     }
 
+    @Override
+    public void incrSold(Long id, int delta) {
+        soldBuffer.add(id, delta);
+    }
+
+    @Override
+    public void incrComments(Long id, int delta) {
+        commentsBuffer.add(id, delta);
+    }
+
+    @Override
+    public void incrScore(Long id, int delta) {
+        scoreBuffer.add(id, delta);
+    }
+
+    @Override
+    @Scheduled(fixedDelay = 3000)
+    public void flushCounters() {
+        // 1. 取出累计的增量
+        Map<Long, Long> sold = soldBuffer.drain();
+        Map<Long, Long> comments = commentsBuffer.drain();
+        Map<Long, Long> score = scoreBuffer.drain();
+        Set<Long> ids = new HashSet<>(sold.keySet());
+        ids.addAll(comments.keySet());
+        ids.addAll(score.keySet());
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        // 2. 按id组装增量，sold、comments、score字段存放的是增量
+        List<Shop> deltas = ids.stream()
+                .map(id -> new Shop().setId(id)
+                        .setSold(sold.getOrDefault(id, 0L).intValue())
+                        .setComments(comments.getOrDefault(id, 0L).intValue())
+                        .setScore(score.getOrDefault(id, 0L).intValue()))
+                .collect(Collectors.toList());
+
+        // 3. 分批刷回数据库
+        for (List<Shop> batch : ListUtil.partition(deltas, SystemConstants.COUNTER_FLUSH_BATCH_SIZE)) {
+            flushBatch(batch);
+        }
+    }
+
+    /**
+     * 停机前刷回缓冲中剩余的增量，避免每次重启、发布丢失最近一个周期的增量
+     */
+    @PreDestroy
+    public void flushCountersOnShutdown() {
+        flushCounters();
+    }
+
+    private void flushBatch(List<Shop> batch) {
+        // 1. 先读出当前缓存，用于更新数据库后原地修改缓存
+        List<String> keys = batch.stream()
+                .map(d -> RedisConstants.CACHE_SHOP_KEY + d.getId())
+                .collect(Collectors.toList());
+        List<String> cached = stringRedisTemplate.opsForValue().multiGet(keys);
+
+        // 2. 一条语句批量更新数据库
+        try {
+            getBaseMapper().incrementCounters(batch);
+        } catch (Exception e) {
+            handleFlushFailure(batch, e);
+            return;
+        }
+        batch.forEach(d -> flushFailures.remove(d.getId()));
+
+        // 3. 原地修改缓存，而不是删除缓存，避免缓存频繁重建
+        if (cached == null) {
+            return;
+        }
+        List<Shop> shops = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            String json = cached.get(i);
+            if (StrUtil.isBlank(json)) {
+                shops.add(null);
+                continue;
+            }
+            Shop d = batch.get(i);
+            Shop shop = JSONUtil.toBean(json, Shop.class);
+            // 与数据库一致，截断到0
+            shop.setSold(Math.max(shop.getSold() + d.getSold(), 0));
+            shop.setComments(Math.max(shop.getComments() + d.getComments(), 0));
+            shop.setScore(Math.max(shop.getScore() + d.getScore(), 0));
+            shops.add(shop);
+        }
+        // 读缓存之后缓存若被重建或删除，则直接删除，由下一次查询重建；整批命令一次发送
+        cacheClient.replaceAllIfUnchanged(keys, cached, shops);
+    }
+
+    /**
+     * 刷回失败：失败次数未达到上限时增量放回缓冲，等待下一轮；
+     * 达到上限时拆成两半分别刷回，找出导致失败的商铺，单个商铺仍失败时丢弃其增量并记录日志
+     */
+    private void handleFlushFailure(List<Shop> batch, Exception e) {
+        int attempts = 0;
+        for (Shop d : batch) {
+            attempts = Math.max(attempts, flushFailures.merge(d.getId(), 1, Integer::sum));
+        }
+        if (attempts < SystemConstants.COUNTER_FLUSH_MAX_ATTEMPTS) {
+            log.error("商铺计数器刷新失败，第{}次，等待重试", attempts, e);
+            for (Shop d : batch) {
+                soldBuffer.add(d.getId(), d.getSold());
+                commentsBuffer.add(d.getId(), d.getComments());
+                scoreBuffer.add(d.getId(), d.getScore());
+            }
+            return;
+        }
+        if (batch.size() > 1) {
+            int half = batch.size() / 2;
+            flushBatch(new ArrayList<>(batch.subList(0, half)));
+            flushBatch(new ArrayList<>(batch.subList(half, batch.size())));
+            return;
+        }
+        Shop d = batch.get(0);
+        flushFailures.remove(d.getId());
+        log.error("商铺计数器连续{}次刷新失败，丢弃增量，shopId：{}，sold：{}，comments：{}，score：{}",
+                attempts, d.getId(), d.getSold(), d.getComments(), d.getScore(), e);
+    }
+
+    @Override
+    public ShopImportResult importShops(InputStream in, boolean csv) throws IOException {
+        ShopImportResult result = new ShopImportResult();
+        List<Shop> batch = new ArrayList<>(SystemConstants.SHOP_IMPORT_BATCH_SIZE);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        // 1. 逐行解析，攒够一批写入一次，内存中只保留一批数据
+        if (csv) {
+            // 首行为表头，列名与Shop的字段名一致，如 name,typeId,images,area,address,x,y,avgPrice,openHours，带id列时按id更新
+            CsvUtil.getReader(new CsvReadConfig().setContainsHeader(true).setSkipEmptyRows(true))
+                    .read(reader, row -> acceptImportRow(row.getOriginalLineNumber(), () -> row.toBean(Shop.class), batch, result));
+        } else {
+            // 每行一个JSON对象
+            String line;
+            long lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                if (StrUtil.isBlank(line)) {
+                    continue;
+                }
+                String json = line;
+                acceptImportRow(lineNo, () -> JSONUtil.toBean(json, Shop.class), batch, result);
+            }
+        }
+        // 2. 写入最后一批
+        if (!batch.isEmpty()) {
+            importBatch(batch, result);
+        }
+        log.info("商铺导入完成，新增：{}，更新：{}，失败：{}", result.getInserted(), result.getUpdated(), result.getFailed());
+        return result;
+    }
+
+    private void acceptImportRow(long lineNo, Supplier<Shop> parser, List<Shop> batch, ShopImportResult result) {
+        Shop shop;
+        try {
+            shop = parser.get();
+        } catch (RuntimeException e) {
+            importFailed(result, 1, "第" + lineNo + "行格式错误：" + e.getMessage());
+            return;
+        }
+        if (StrUtil.hasBlank(shop.getName(), shop.getImages(), shop.getAddress())
+                || shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+            importFailed(result, 1, "第" + lineNo + "行缺少必填字段");
+            return;
+        }
+        batch.add(shop);
+        if (batch.size() >= SystemConstants.SHOP_IMPORT_BATCH_SIZE) {
+            importBatch(batch, result);
+            batch.clear();
+        }
+    }
+
+    private void importBatch(List<Shop> batch, ShopImportResult result) {
+        List<Shop> inserts = batch.stream().filter(shop -> shop.getId() == null).collect(Collectors.toList());
+        List<Shop> upserts = batch.stream().filter(shop -> shop.getId() != null).collect(Collectors.toList());
+
+        // 1. 一个事务内多行插入、多行更新，同时查询已存在商铺原来的类型，
+        // 类型变化时需要从原类型的GEO中移除，不存在的id会被新增
+        Map<Long, Long> existing;
+        try {
+            existing = transactionTemplate.execute(tx -> {
+                Map<Long, Long> types = upserts.isEmpty() ? Collections.emptyMap() : query()
+                        .select("id", "type_id")
+                        .in("id", upserts.stream().map(Shop::getId).collect(Collectors.toList()))
+                        .list().stream()
+                        .collect(Collectors.toMap(Shop::getId, Shop::getTypeId));
+                if (!inserts.isEmpty()) {
+                    getBaseMapper().insertBatch(inserts);
+                }
+                if (!upserts.isEmpty()) {
+                    getBaseMapper().upsertBatch(upserts);
+                }
+                return types;
+            });
+        } catch (RuntimeException e) {
+            log.warn("商铺导入失败，批次大小：{}", batch.size(), e);
+            importFailed(result, batch.size(), "批次写入失败：" + e.getMessage());
+            return;
+        }
+        Map<Long, Long> oldTypes = existing == null ? Collections.emptyMap() : existing;
+        result.setInserted(result.getInserted() + inserts.size() + upserts.size() - oldTypes.size());
+        result.setUpdated(result.getUpdated() + oldTypes.size());
+
+        // 2. 增量更新GEO，一次管道提交
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Shop shop : batch) {
+                String member = shop.getId().toString();
+                Long oldType = oldTypes.get(shop.getId());
+                if (oldType != null && !oldType.equals(shop.getTypeId())) {
+                    conn.zRem(RedisConstants.SHOP_GEO_KEY + oldType, member);
+                }
+                conn.geoAdd(RedisConstants.SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), member);
+            }
+            return null;
+        });
+
+        // 3. 删除被更新商铺的缓存，新增的商铺没有缓存
+        if (!upserts.isEmpty()) {
+            cacheInvalidator.evict(upserts.stream()
+                    .map(shop -> RedisConstants.CACHE_SHOP_KEY + shop.getId())
+                    .toArray(String[]::new));
+        }
+    }
+
+    private void importFailed(ShopImportResult result, int rows, String error) {
+        result.setFailed(result.getFailed() + rows);
+        if (result.getErrors().size() < SystemConstants.SHOP_IMPORT_MAX_ERRORS) {
+            result.getErrors().add(error);
+        }
+    }
+
+    @Override
+    public void exportShops(OutputStream out) throws IOException {
+        // 不在事务中打开会话，查询走从库；游标逐行读取，每行写出一个JSON对象
+        try (SqlSession session = sqlSessionFactory.openSession();
+             Cursor<Shop> cursor = session.getMapper(ShopMapper.class).scanAll()) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            for (Shop shop : cursor) {
+                writer.write(JSONUtil.toJsonStr(shop));
+                writer.write('\n');
+            }
+            writer.flush();
+        }
+    }
+
 //
 //    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
 //
@@ -6,6 +6,7 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheClient;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
@@ -31,6 +32,9 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
     @Override
     public Result queryTypeList() {
         // 1. 从Redis中查询商户类型列表
@@ -51,8 +55,8 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
             return Result.fail("商户类型不存在");
         }
 
-        // 6. 存在，保存商户类型列表到Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shopTypeList), CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        // 6. 存在，保存商户类型列表到Redis，过期时间带随机抖动
+        cacheClient.set(key, shopTypeList, CACHE_SHOP_TTL, TimeUnit.MINUTES);
 
         // 7. 返回商户类型列表
         return Result.ok(shopTypeList);
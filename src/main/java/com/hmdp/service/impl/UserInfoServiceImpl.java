@@ -1,11 +1,29 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.collection.CollUtil;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IUserInfoService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
@@ -14,7 +32,141 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-24
  */
+@Slf4j
 @Service
 public class UserInfoServiceImpl extends ServiceImpl<UserInfoMapper, UserInfo> implements IUserInfoService {
 
+    private static final String FIELD_FANS = "fans";
+    private static final String FIELD_FOLLOWEE = "followee";
+
+    private static final DefaultRedisScript<Long> INCR_SCRIPT;
+    static {
+        INCR_SCRIPT = new DefaultRedisScript<>();
+        INCR_SCRIPT.setLocation(new ClassPathResource("lua/user_counter_incr.lua"));
+        INCR_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final DefaultRedisScript<Long> DEL_NULL_SCRIPT;
+    static {
+        DEL_NULL_SCRIPT = new DefaultRedisScript<>();
+        DEL_NULL_SCRIPT.setLocation(new ClassPathResource("lua/cache_del_null.lua"));
+        DEL_NULL_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Override
+    public Result queryUserInfo(Long userId) {
+        // 1. 查询详情，走缓存
+        UserInfo info = cacheClient.queryWithPassThrough(CACHE_USER_INFO_KEY, userId, UserInfo.class, this::getById, CACHE_USER_INFO_TTL, TimeUnit.MINUTES);
+        // 2. 用redis中的计数器覆盖粉丝数、关注数，数据库中的值可能还未刷新
+        List<Object> counters = stringRedisTemplate.opsForHash().multiGet(USER_COUNTER_KEY + userId, Arrays.asList(FIELD_FANS, FIELD_FOLLOWEE));
+        if (info == null) {
+            if (counters.get(0) == null && counters.get(1) == null) {
+                // 没有详情，也没有计数，应该是第一次查看详情
+                return Result.ok();
+            }
+            // 没有详情，但已经有粉丝或关注，详情行等待计数器刷回时创建
+            info = new UserInfo().setUserId(userId);
+        }
+        if (counters.get(0) != null) {
+            info.setFans(Integer.valueOf(counters.get(0).toString()));
+        }
+        if (counters.get(1) != null) {
+            info.setFollowee(Integer.valueOf(counters.get(1).toString()));
+        }
+        info.setCreateTime(null);
+        info.setUpdateTime(null);
+        // 3. 返回
+        return Result.ok(info);
+    }
+
+    @Override
+    public void incrFans(Long userId, int delta) {
+        incrCounter(userId, FIELD_FANS, delta);
+    }
+
+    @Override
+    public void incrFollowee(Long userId, int delta) {
+        incrCounter(userId, FIELD_FOLLOWEE, delta);
+    }
+
+    private void incrCounter(Long userId, String field, int delta) {
+        List<String> keys = Arrays.asList(USER_COUNTER_KEY + userId, USER_COUNTER_DIRTY_KEY);
+        // 1. 计数器已初始化，直接累加
+        Long result = stringRedisTemplate.execute(INCR_SCRIPT, keys, field, String.valueOf(delta), userId.toString());
+        if (result != null && result == 1L) {
+            return;
+        }
+        // 2. 未初始化，以数据库中的值初始化，并发初始化时只有第一次写入生效
+        UserInfo info = getById(userId);
+        String key = USER_COUNTER_KEY + userId;
+        stringRedisTemplate.opsForHash().putIfAbsent(key, FIELD_FANS, String.valueOf(info == null || info.getFans() == null ? 0 : info.getFans()));
+        stringRedisTemplate.opsForHash().putIfAbsent(key, FIELD_FOLLOWEE, String.valueOf(info == null || info.getFollowee() == null ? 0 : info.getFollowee()));
+        // 3. 重新累加
+        stringRedisTemplate.execute(INCR_SCRIPT, keys, field, String.valueOf(delta), userId.toString());
+    }
+
+    @Override
+    @Scheduled(fixedDelay = 5000)
+    public void flushCounters() {
+        while (true) {
+            // 1. 取出一批待刷回的用户
+            List<String> ids = stringRedisTemplate.opsForSet().pop(USER_COUNTER_DIRTY_KEY, SystemConstants.COUNTER_FLUSH_BATCH_SIZE);
+            if (CollUtil.isEmpty(ids)) {
+                return;
+            }
+            // 2. 批量读取计数器
+            List<Object> counters = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (String id : ids) {
+                    conn.hMGet(USER_COUNTER_KEY + id, FIELD_FANS, FIELD_FOLLOWEE);
+                }
+                return null;
+            });
+            List<UserInfo> infos = new ArrayList<>(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                List<?> values = (List<?>) counters.get(i);
+                if (values == null || values.get(0) == null || values.get(1) == null) {
+                    continue;
+                }
+                infos.add(new UserInfo()
+                        .setUserId(Long.valueOf(ids.get(i)))
+                        .setFans(Integer.valueOf(values.get(0).toString()))
+                        .setFollowee(Integer.valueOf(values.get(1).toString())));
+            }
+            if (infos.isEmpty()) {
+                continue;
+            }
+            // 3. 批量写入数据库，写入的是计数器的当前值，重复写入也不会出错
+            try {
+                getBaseMapper().upsertCounters(infos);
+            } catch (Exception e) {
+                // 写入失败，重新标记，等待下一轮
+                log.error("用户计数器刷新失败，等待重试", e);
+                stringRedisTemplate.opsForSet().add(USER_COUNTER_DIRTY_KEY, ids.toArray(new String[0]));
+                return;
+            }
+            // 4. 写入可能新建了详情行，删除缓存的空值，已缓存的详情不受影响
+            evictNullInfos(infos);
+        }
+    }
+
+    /**
+     * 删除缓存的用户详情空值，每个key单独执行，在一个pipeline中发送，集群模式下不跨slot
+     */
+    private void evictNullInfos(List<UserInfo> infos) {
+        String script = DEL_NULL_SCRIPT.getScriptAsString();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (UserInfo info : infos) {
+                conn.eval(script, ReturnType.INTEGER, 1, CACHE_USER_INFO_KEY + info.getUserId());
+            }
+            return null;
+        });
+    }
 }
@@ -1,8 +1,7 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
@@ -10,16 +9,17 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.LocalRateLimiter;
+import com.hmdp.utils.LoginSessions;
+import com.hmdp.utils.RateLimitRule;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SlidingWindowRateLimiter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -37,17 +37,47 @@ import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
 @Service
 public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IUserService {
 
+    /**
+     * 本地令牌桶：单个IP允许的突发请求数和每秒补充的令牌数
+     */
+    private static final int SMS_IP_BURST = 5;
+    private static final double SMS_IP_PERMITS_PER_SECOND = 0.2;
+    private static final int LOGIN_IP_BURST = 10;
+    private static final double LOGIN_IP_PERMITS_PER_SECOND = 0.5;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private LocalRateLimiter localRateLimiter;
+
+    @Resource
+    private SlidingWindowRateLimiter slidingWindowRateLimiter;
+
+    @Resource
+    private LoginSessions loginSessions;
+
     @Override
-    public Result sendCode(String phone, HttpSession session) {
+    public Result sendCode(String phone, String ip, HttpSession session) {
         //1. 校验手机号
         if (RegexUtils.isPhoneInvalid(phone)){
             //2. 如果不符合，返回错误信息
             return Result.fail("手机号格式错误！");
         }
 
+        //2.1. 本地令牌桶快速拦截同一IP的高频请求，不访问redis
+        if (!localRateLimiter.tryAcquire(LIMIT_SMS_IP_KEY + ip, SMS_IP_BURST, SMS_IP_PERMITS_PER_SECOND)) {
+            return Result.fail("请求过于频繁，请稍后再试！");
+        }
+        //2.2. redis滑动窗口限流：同一手机号1分钟1次、1小时5次，同一IP1小时20次，一次lua调用完成
+        boolean allowed = slidingWindowRateLimiter.tryAcquire(
+                new RateLimitRule(LIMIT_SMS_PHONE_KEY + phone + ":1m", 1, 1, TimeUnit.MINUTES),
+                new RateLimitRule(LIMIT_SMS_PHONE_KEY + phone + ":1h", 5, 1, TimeUnit.HOURS),
+                new RateLimitRule(LIMIT_SMS_IP_KEY + ip, 20, 1, TimeUnit.HOURS));
+        if (!allowed) {
+            return Result.fail("发送过于频繁，请稍后再试！");
+        }
+
         //3. 符合，生成验证码
         String code = RandomUtil.randomNumbers(6);
 
@@ -65,7 +95,7 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     }
 
     @Override
-    public Result login(LoginFormDTO loginForm, HttpSession session) {
+    public Result login(LoginFormDTO loginForm, String ip, HttpSession session) {
 
         // 1. 校验手机号
         String phone = loginForm.getPhone();
@@ -73,6 +103,17 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             return Result.fail("手机号格式错误！");
         }
 
+        // 1.1. 限流，防止暴力猜测验证码：同一手机号5分钟5次，同一IP5分钟30次
+        if (!localRateLimiter.tryAcquire(LIMIT_LOGIN_IP_KEY + ip, LOGIN_IP_BURST, LOGIN_IP_PERMITS_PER_SECOND)) {
+            return Result.fail("请求过于频繁，请稍后再试！");
+        }
+        boolean allowed = slidingWindowRateLimiter.tryAcquire(
+                new RateLimitRule(LIMIT_LOGIN_PHONE_KEY + phone, 5, 5, TimeUnit.MINUTES),
+                new RateLimitRule(LIMIT_LOGIN_IP_KEY + ip, 30, 5, TimeUnit.MINUTES));
+        if (!allowed) {
+            return Result.fail("登录尝试过于频繁，请稍后再试！");
+        }
+
         // 2. 校验验证码
         String code = loginForm.getCode();
         Object cacheCode = stringRedisTemplate.opsForValue().get(LOGIN_CODE_KEY + phone);
@@ -91,26 +132,11 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         if (user == null){
 
             // 6. 不存在，创建新用户并保存
-            createUserWithPhone(phone);
+            user = createUserWithPhone(phone);
         }
 
-        // 7. 保存用户信息到redis
-        // 7.1. 随机生成token，作为登录令牌
-        String token = UUID.randomUUID().toString();
-
-        // 7.2. 将User 对象转为hash存储
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO, new HashMap<>(),
-                CopyOptions.create()
-                        .setIgnoreNullValue(true)
-                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
-
-        // 7.3. 存储
-        String tokenKey = LOGIN_USER_KEY + token;
-        stringRedisTemplate.opsForHash().putAll(tokenKey, userMap);
-
-        // 7.4. 设置token有效期
-        stringRedisTemplate.expire(tokenKey, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        // 7. 创建登录会话，同时删除已使用的验证码
+        String token = loginSessions.issue(UserDTO.of(user), LOGIN_CODE_KEY + phone);
 
         // 8. 返回token
         return Result.ok(token);
@@ -119,6 +145,14 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 //        return Result.ok();
     }
 
+    @Override
+    public Result logout(String token) {
+        if (StrUtil.isNotBlank(token)) {
+            loginSessions.revoke(token);
+        }
+        return Result.ok();
+    }
+
     private User createUserWithPhone(String phone) {
         // 1. 创建用户
         User user = new User();
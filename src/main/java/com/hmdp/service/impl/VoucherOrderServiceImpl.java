@@ -1,10 +1,41 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.SeckillVoucherMapper;
 import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.OrderSharding;
+import com.hmdp.utils.RedisDelayQueue;
+import com.hmdp.utils.RedisLockClient;
+import com.hmdp.utils.RedisWorker;
+import com.hmdp.utils.SeckillStockClient;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -14,7 +45,428 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
+    private static final DefaultRedisScript<Long> ORDER_PUT_SCRIPT;
+    private static final DefaultRedisScript<Long> ORDER_POPULATE_SCRIPT;
+    static {
+        ORDER_PUT_SCRIPT = new DefaultRedisScript<>();
+        ORDER_PUT_SCRIPT.setLocation(new ClassPathResource("lua/order_put.lua"));
+        ORDER_PUT_SCRIPT.setResultType(Long.class);
+        ORDER_POPULATE_SCRIPT = new DefaultRedisScript<>();
+        ORDER_POPULATE_SCRIPT.setLocation(new ClassPathResource("lua/order_populate.lua"));
+        ORDER_POPULATE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 订单状态，1：未支付；2：已支付；3：已核销；4：已取消；5：退款中；6：已退款
+     */
+    private static final int STATUS_UNPAID = 1;
+    private static final int STATUS_PAID = 2;
+    private static final int STATUS_USED = 3;
+    private static final int STATUS_CANCELLED = 4;
+    private static final int STATUS_REFUNDING = 5;
+    private static final int STATUS_REFUNDED = 6;
+
+    /**
+     * 用户可以发起的状态变更，key为目标状态，value为变更前必须处于的状态
+     */
+    private static final Map<Integer, Integer> USER_TRANSITIONS = new HashMap<>();
+    /**
+     * 只能由支付回调或商家、管理员确认的状态变更
+     */
+    private static final Map<Integer, Integer> CONFIRM_TRANSITIONS = new HashMap<>();
+    /**
+     * 变更为目标状态时需要记录时间的字段
+     */
+    private static final Map<Integer, String> TIME_COLUMNS = new HashMap<>();
+    static {
+        USER_TRANSITIONS.put(STATUS_CANCELLED, STATUS_UNPAID);
+        USER_TRANSITIONS.put(STATUS_REFUNDING, STATUS_PAID);
+        CONFIRM_TRANSITIONS.put(STATUS_PAID, STATUS_UNPAID);
+        CONFIRM_TRANSITIONS.put(STATUS_USED, STATUS_PAID);
+        CONFIRM_TRANSITIONS.put(STATUS_REFUNDED, STATUS_REFUNDING);
+        TIME_COLUMNS.put(STATUS_PAID, "pay_time");
+        TIME_COLUMNS.put(STATUS_USED, "use_time");
+        TIME_COLUMNS.put(STATUS_REFUNDED, "refund_time");
+    }
+
+    /**
+     * 订单缓存中记录缓存覆盖范围的字段
+     */
+    private static final String FIELD_MIN = "min";
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisLockClient redisLockClient;
+
+    @Resource
+    private SeckillStockClient seckillStockClient;
+
+    @Resource
+    private RedisWorker redisWorker;
+
+    @Resource
+    private OrderSharding orderSharding;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * 未支付订单的超时取消队列，元素为订单id
+     */
+    private RedisDelayQueue orderCancelQueue;
+
+    @PostConstruct
+    private void init() {
+        orderCancelQueue = new RedisDelayQueue(stringRedisTemplate, ORDER_CANCEL_QUEUE_KEY,
+                SystemConstants.ORDER_CANCEL_BATCH_SIZE, SystemConstants.ORDER_CANCEL_PROCESSING_TIMEOUT_MILLIS,
+                this::cancelExpiredOrders);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        orderCancelQueue.shutdown();
+    }
+
+    @Override
+    public Result seckillVoucher(Long voucherId) {
+        // 1. 查询秒杀券
+        SeckillVoucher voucher = seckillVoucherService.queryCached(voucherId);
+        if (voucher == null) {
+            return Result.fail("秒杀券不存在！");
+        }
+        // 2. 判断秒杀是否开始、是否结束
+        LocalDateTime now = LocalDateTime.now();
+        if (voucher.getBeginTime().isAfter(now)) {
+            return Result.fail("秒杀尚未开始！");
+        }
+        if (voucher.getEndTime().isBefore(now)) {
+            return Result.fail("秒杀已经结束！");
+        }
+
+        // 3. 在redis中预扣库存，库存不足时直接返回，不访问数据库
+        Long userId = UserHolder.getUser().getId();
+        long stockResult = seckillStockClient.tryDeduct(voucherId, userId);
+        if (stockResult == SeckillStockClient.SOLD_OUT) {
+            return Result.fail("库存不足！");
+        }
+        boolean deducted = stockResult == SeckillStockClient.DEDUCTED;
+
+        // 4. 一人一单：同一用户的下单请求串行执行，重复点击时直接拒绝
+        ILock lock = redisLockClient.getLock(LOCK_ORDER_KEY + userId);
+        if (!lock.tryLock(0, TimeUnit.SECONDS)) {
+            returnStock(voucherId, userId, deducted);
+            return Result.fail("不允许重复下单！");
+        }
+        Result result;
+        try {
+            // 5. 在事务中扣减数据库库存，在用户所在的分表创建订单
+            int shard = orderSharding.shardOfUser(userId);
+            result = transactionTemplate.execute(status -> orderSharding.on(shard, () -> createVoucherOrder(voucherId, userId, shard)));
+        } catch (RuntimeException e) {
+            returnStock(voucherId, userId, deducted);
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+        if (result == null || !Boolean.TRUE.equals(result.getSuccess())) {
+            returnStock(voucherId, userId, deducted);
+            return result;
+        }
+
+        // 6. 事务提交后写入用户的订单缓存，加入超时取消队列，累加店铺销量
+        VoucherOrder voucherOrder = (VoucherOrder) result.getData();
+        putOrderCache(voucherOrder);
+        incrSold(Collections.singletonMap(voucherId, 1), 1);
+        orderCancelQueue.add(voucherOrder.getId().toString(), SystemConstants.ORDER_PAY_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        return Result.ok(voucherOrder.getId());
+    }
+
+    private Result createVoucherOrder(Long voucherId, Long userId, int shard) {
+        // 1. 判断是否已经购买过，已取消的订单不计入
+        Integer count = query().eq("user_id", userId).eq("voucher_id", voucherId).ne("status", STATUS_CANCELLED).count();
+        if (count > 0) {
+            return Result.fail("用户已经购买过一次！");
+        }
+
+        // 2. 扣减库存，以 stock > 0 作为条件，防止超卖
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock - 1")
+                .eq("voucher_id", voucherId)
+                .gt("stock", 0)
+                .update();
+        if (!success) {
+            return Result.fail("库存不足！");
+        }
+
+        // 3. 创建订单
+        VoucherOrder voucherOrder = new VoucherOrder();
+        // 订单id记录分表号，按id查询时直接定位分表
+        long orderId = redisWorker.nextId("order", shard);
+        voucherOrder.setId(orderId);
+        voucherOrder.setUserId(userId);
+        voucherOrder.setVoucherId(voucherId);
+        voucherOrder.setStatus(STATUS_UNPAID);
+        voucherOrder.setCreateTime(LocalDateTime.now());
+        save(voucherOrder);
+
+        // 4. 返回订单
+        return Result.ok(voucherOrder);
+    }
+
+    @Override
+    public Result queryMyOrders(Integer status, Long lastId) {
+        Long userId = UserHolder.getUser().getId();
+        // 用户的订单都在同一个分表
+        return orderSharding.on(orderSharding.shardOfUser(userId), () -> queryMyOrders(userId, status, lastId));
+    }
+
+    private Result queryMyOrders(Long userId, Integer status, Long lastId) {
+        int size = SystemConstants.MAX_PAGE_SIZE;
+
+        // 1. 从缓存中查询用户最近的订单，未命中时查询数据库并回填
+        String key = CACHE_ORDER_KEY + userId;
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(key);
+        long min;
+        List<VoucherOrder> recent;
+        if (entries.isEmpty()) {
+            List<VoucherOrder> orders = query().eq("user_id", userId)
+                    .orderByDesc("id")
+                    .last("LIMIT " + (SystemConstants.ORDER_CACHE_SIZE + 1))
+                    .list();
+            // 多查一条，判断缓存能否包含该用户的全部订单
+            recent = orders.stream().limit(SystemConstants.ORDER_CACHE_SIZE).collect(Collectors.toList());
+            min = orders.size() > SystemConstants.ORDER_CACHE_SIZE ? recent.get(recent.size() - 1).getId() : 0L;
+            populateOrderCache(key, userId, recent, min);
+        } else {
+            Object minValue = entries.remove(FIELD_MIN);
+            min = minValue == null ? Long.MAX_VALUE : Long.parseLong(minValue.toString());
+            recent = entries.values().stream()
+                    .map(json -> JSONUtil.toBean(json.toString(), VoucherOrder.class))
+                    .collect(Collectors.toList());
+        }
+
+        // 2. 在缓存的订单中按状态过滤，按id倒序滚动分页
+        List<VoucherOrder> page = recent.stream()
+                .filter(o -> status == null || status.equals(o.getStatus()))
+                .filter(o -> lastId == null || o.getId() < lastId)
+                .sorted(Comparator.comparing(VoucherOrder::getId).reversed())
+                .limit(size)
+                .collect(Collectors.toList());
+
+        // 3. 数量不足且缓存之外还有更早的订单，查询数据库补齐
+        if (page.size() < size && min > 0) {
+            long upper = lastId == null ? min : Math.min(lastId, min);
+            page.addAll(query().eq("user_id", userId)
+                    .eq(status != null, "status", status)
+                    .lt("id", upper)
+                    .orderByDesc("id")
+                    .last("LIMIT " + (size - page.size()))
+                    .list());
+        }
+        return Result.ok(page);
+    }
+
+    @Override
+    public Result updateStatus(Long id, Integer status) {
+        // 1. 校验状态变更，用户只能取消未支付的订单、对已支付的订单申请退款
+        Integer from = transitionFrom(status, true);
+        if (from == null) {
+            return Result.fail("不支持的订单状态！");
+        }
+        Long userId = UserHolder.getUser().getId();
+        // 订单id中记录了分表号
+        int shard = orderSharding.shardOfOrder(id);
+        if (shard < 0) {
+            return Result.fail("订单不存在！");
+        }
+        return orderSharding.on(shard, () -> updateStatus(id, userId, status, from));
+    }
+
+    @Override
+    public Result confirmStatus(Long id, Integer status) {
+        // 1. 校验状态变更，支付、核销、退款完成只能由支付回调或商家、管理员确认
+        Integer from = transitionFrom(status, false);
+        if (from == null) {
+            return Result.fail("不支持的订单状态！");
+        }
+        int shard = orderSharding.shardOfOrder(id);
+        if (shard < 0) {
+            return Result.fail("订单不存在！");
+        }
+        return orderSharding.on(shard, () -> updateStatus(id, null, status, from));
+    }
+
+    /**
+     * 查询变更为目标状态前订单必须处于的状态，不允许变更时返回null
+     * @param byUser 是否由下单用户发起
+     */
+    static Integer transitionFrom(Integer status, boolean byUser) {
+        return (byUser ? USER_TRANSITIONS : CONFIRM_TRANSITIONS).get(status);
+    }
+
+    /**
+     * @param userId 下单用户，由用户发起时只能修改自己的订单；为null时不校验
+     */
+    private Result updateStatus(Long id, Long userId, Integer status, Integer from) {
+        // 2. 以原状态为条件更新，并发的状态变更只有一个能成功
+        Boolean success = transactionTemplate.execute(tx -> {
+            String timeColumn = TIME_COLUMNS.get(status);
+            boolean updated = update()
+                    .set("status", status)
+                    .set(timeColumn != null, timeColumn, LocalDateTime.now())
+                    .eq("id", id)
+                    .eq(userId != null, "user_id", userId)
+                    .eq("status", from)
+                    .update();
+            if (updated && status == STATUS_CANCELLED) {
+                // 取消订单，归还数据库库存
+                returnDbStock(Collections.singletonList(getById(id)));
+            }
+            return updated;
+        });
+        if (!Boolean.TRUE.equals(success)) {
+            return Result.fail("订单不存在或状态已变更！");
+        }
+
+        // 3. 事务提交后更新订单缓存，取消订单时归还redis库存
+        VoucherOrder order = getById(id);
+        if (status == STATUS_CANCELLED) {
+            returnRedisStock(Collections.singletonList(order));
+            incrSold(Collections.singletonMap(order.getVoucherId(), 1), -1);
+        }
+        putOrderCache(order);
+        // 已经不是未支付状态，移出超时取消队列
+        if (from == STATUS_UNPAID) {
+            orderCancelQueue.remove(id.toString());
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 兜底扫描超时取消队列，处理其他节点创建的订单和重启前未处理的订单
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void scanExpiredOrders() {
+        orderCancelQueue.schedulePoll();
+    }
+
+    /**
+     * 批量取消超时未支付的订单，归还数据库和redis库存。重复处理同一订单时不会重复归还
+     */
+    private void cancelExpiredOrders(List<String> ids) {
+        // 按订单id中的分表号分组
+        Map<Integer, List<Long>> orderIdsByShard = ids.stream().map(Long::valueOf)
+                .collect(Collectors.groupingBy(orderSharding::shardOfOrder));
+        // 分表号不合法的订单不存在，丢弃
+        orderIdsByShard.remove(-1);
+
+        // 1. 在事务中锁定仍未支付的订单，批量取消并归还数据库库存，期间支付的订单不受影响
+        List<VoucherOrder> cancelled = transactionTemplate.execute(tx -> {
+            List<VoucherOrder> unpaid = new ArrayList<>();
+            orderIdsByShard.forEach((shard, orderIds) -> unpaid.addAll(orderSharding.on(shard, () -> {
+                List<VoucherOrder> orders = query()
+                        .in("id", orderIds)
+                        .eq("status", STATUS_UNPAID)
+                        .last("FOR UPDATE")
+                        .list();
+                if (!orders.isEmpty()) {
+                    update().set("status", STATUS_CANCELLED)
+                            .in("id", orders.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                            .update();
+                }
+                return orders;
+            })));
+            if (!unpaid.isEmpty()) {
+                returnDbStock(unpaid);
+            }
+            return unpaid;
+        });
+        if (cancelled == null || cancelled.isEmpty()) {
+            return;
+        }
+
+        // 2. 事务提交后一次lua调用归还redis库存，扣回店铺销量，更新订单缓存
+        returnRedisStock(cancelled);
+        incrSold(countByVoucher(cancelled), -1);
+        for (VoucherOrder order : cancelled) {
+            order.setStatus(STATUS_CANCELLED);
+            putOrderCache(order);
+        }
+        log.info("取消超时未支付订单，数量：{}", cancelled.size());
+    }
+
+    private void returnDbStock(List<VoucherOrder> orders) {
+        List<SeckillVoucher> deltas = countByVoucher(orders).entrySet().stream()
+                .map(e -> new SeckillVoucher().setVoucherId(e.getKey()).setStock(e.getValue()))
+                .collect(Collectors.toList());
+        seckillVoucherMapper.incrementStock(deltas);
+    }
+
+    private void returnRedisStock(List<VoucherOrder> orders) {
+        seckillStockClient.returnStock(orders.stream().collect(Collectors.groupingBy(
+                VoucherOrder::getVoucherId, Collectors.mapping(VoucherOrder::getUserId, Collectors.toList()))));
+    }
+
+    /**
+     * 按优惠券所属店铺累加销量，由店铺服务缓冲后批量刷回
+     * @param sign 1：下单；-1：取消
+     */
+    private void incrSold(Map<Long, Integer> countByVoucher, int sign) {
+        countByVoucher.forEach((voucherId, count) -> {
+            Long shopId = voucherService.queryShopId(voucherId);
+            if (shopId != null) {
+                shopService.incrSold(shopId, sign * count);
+            }
+        });
+    }
+
+    private Map<Long, Integer> countByVoucher(List<VoucherOrder> orders) {
+        return orders.stream().collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.summingInt(o -> 1)));
+    }
+
+    private void putOrderCache(VoucherOrder order) {
+        Long userId = order.getUserId();
+        stringRedisTemplate.execute(ORDER_PUT_SCRIPT,
+                Arrays.asList(CACHE_ORDER_KEY + userId, CACHE_ORDER_DIRTY_KEY + userId),
+                order.getId().toString(), JSONUtil.toJsonStr(order), CACHE_ORDER_DIRTY_TTL.toString());
+    }
+
+    private void populateOrderCache(String key, Long userId, List<VoucherOrder> orders, long min) {
+        List<String> args = new ArrayList<>(orders.size() * 2 + 2);
+        args.add(String.valueOf(TimeUnit.MINUTES.toSeconds(CACHE_ORDER_TTL)));
+        args.add(String.valueOf(min));
+        for (VoucherOrder order : orders) {
+            args.add(order.getId().toString());
+            args.add(JSONUtil.toJsonStr(order));
+        }
+        stringRedisTemplate.execute(ORDER_POPULATE_SCRIPT,
+                Arrays.asList(key, CACHE_ORDER_DIRTY_KEY + userId), args.toArray());
+    }
+
+    /**
+     * 下单失败时归还redis中预扣的库存
+     */
+    private void returnStock(Long voucherId, Long userId, boolean deducted) {
+        if (deducted) {
+            seckillStockClient.returnStock(Collections.singletonMap(voucherId, Collections.singletonList(userId)));
+        }
+    }
 }
@@ -1,5 +1,8 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
@@ -7,11 +10,22 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.SeckillStockClient;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -27,14 +41,89 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private SeckillStockClient seckillStockClient;
+
+    /**
+     * 优惠券所属的店铺，创建后不会变化，缓存在本地
+     */
+    private final LRUCache<Long, Long> shopIds = CacheUtil.newLRUCache(10000);
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        // 1. 从redis查询店铺的优惠券列表（只缓存静态信息）
+        String key = CACHE_VOUCHER_LIST_KEY + shopId;
+        String json = stringRedisTemplate.opsForValue().get(key);
+
+        List<Voucher> vouchers;
+        if (json != null) {
+            // 2. 命中，反序列化
+            vouchers = JSONUtil.toList(json, Voucher.class);
+        } else {
+            // 3. 未命中，查询数据库并写入缓存，空列表同样缓存，避免穿透
+            vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+            cacheClient.set(key, vouchers, CACHE_VOUCHER_LIST_TTL, TimeUnit.MINUTES);
+        }
+
+        // 4. 用redis中的秒杀库存覆盖缓存中的库存，保证库存实时
+        fillSeckillStock(vouchers);
+
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    private void fillSeckillStock(List<Voucher> vouchers) {
+        // 只有秒杀券才有库存
+        List<Voucher> seckillVouchers = vouchers.stream()
+                .filter(v -> v.getStock() != null)
+                .collect(Collectors.toList());
+        if (seckillVouchers.isEmpty()) {
+            return;
+        }
+        // 一次multiGet批量读取库存，分片的券累加各分片的库存
+        Map<Long, Integer> stocks = seckillStockClient.getStocks(seckillVouchers.stream()
+                .map(Voucher::getId)
+                .collect(Collectors.toList()));
+        for (Voucher voucher : seckillVouchers) {
+            Integer stock = stocks.get(voucher.getId());
+            // redis中没有库存时，保留数据库中查询到的库存
+            if (stock != null) {
+                voucher.setStock(stock);
+            }
+        }
+    }
+
+    @Override
+    public Long queryShopId(Long voucherId) {
+        Long shopId = shopIds.get(voucherId);
+        if (shopId != null) {
+            return shopId;
+        }
+        Voucher voucher = query().select("id", "shop_id").eq("id", voucherId).one();
+        if (voucher == null) {
+            return null;
+        }
+        shopIds.put(voucherId, voucher.getShopId());
+        return voucher.getShopId();
+    }
+
+    @Override
+    public void addVoucher(Voucher voucher) {
+        // 保存优惠券
+        save(voucher);
+        // 删除店铺优惠券列表缓存
+        cacheInvalidator.evict(CACHE_VOUCHER_LIST_KEY + voucher.getShopId());
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -47,5 +136,15 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
+        // 事务提交后保存秒杀库存到redis，按需拆分为多个分片；事务回滚时不会留下没有对应优惠券的库存
+        int shards = voucher.getStockShards() == null ? 1 : voucher.getStockShards();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                seckillStockClient.load(voucher.getId(), voucher.getStock(), shards);
+            }
+        });
+        // 事务提交后删除店铺优惠券列表缓存
+        cacheInvalidator.evictAfterCommit(CACHE_VOUCHER_LIST_KEY + voucher.getShopId());
     }
 }
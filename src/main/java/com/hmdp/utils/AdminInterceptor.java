@@ -0,0 +1,33 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+/**
+ * 管理接口拦截器，在登录拦截器之后执行，只放行配置的管理员
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final Set<Long> adminIds;
+
+    public AdminInterceptor(Set<Long> adminIds) {
+        this.adminIds = adminIds;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 判断是否为管理员
+        UserDTO user = UserHolder.getUser();
+        if (user == null || !adminIds.contains(user.getId())) {
+            // 不是，拦截，返回403
+            response.setStatus(403);
+            return false;
+        }
+        // 放行
+        return true;
+    }
+}
@@ -0,0 +1,11 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存重建繁忙：等待互斥锁或数据库加载许可超时，且没有可返回的旧值
+ */
+public class CacheBusyException extends RuntimeException {
+
+    public CacheBusyException() {
+        super("缓存重建繁忙，请稍后重试");
+    }
+}
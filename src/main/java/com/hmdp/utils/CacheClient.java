@@ -1,51 +1,153 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.util.RandomUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.ScriptOutputType;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
 import java.util.function.Function;
 
+import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.CACHE_DB_LOAD_PERMITS;
+import static com.hmdp.utils.SystemConstants.CACHE_DB_LOAD_WAIT_MILLIS;
+import static com.hmdp.utils.SystemConstants.CACHE_REBUILD_WAIT_MILLIS;
+
 
 @Slf4j
 @Component
 public class CacheClient {
 
+    private static final DefaultRedisScript<Long> CAS_SCRIPT;
+    static {
+        CAS_SCRIPT = new DefaultRedisScript<>();
+        CAS_SCRIPT.setLocation(new ClassPathResource("lua/cache_cas.lua"));
+        CAS_SCRIPT.setResultType(Long.class);
+    }
+
     private final StringRedisTemplate stringRedisTemplate;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private final RedisLockClient redisLockClient;
+
+    private final RedisBulk redisBulk;
+
+    /**
+     * 按key前缀配置的过期策略
+     */
+    private final Map<String, CacheTtlPolicy> ttlPolicies = new ConcurrentHashMap<>();
+
+    /**
+     * 按key前缀记录的最近一次重建耗时（毫秒），用于提前刷新
+     */
+    private final Map<String, Long> rebuildCosts = new ConcurrentHashMap<>();
+
+    /**
+     * 全局的数据库加载并发限制，防止大量key同时过期时压垮数据库
+     */
+    private final Semaphore dbLoadPermits = new Semaphore(CACHE_DB_LOAD_PERMITS);
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, RedisLockClient redisLockClient, RedisBulk redisBulk) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.redisLockClient = redisLockClient;
+        this.redisBulk = redisBulk;
+        registerTtlPolicy(CACHE_SHOP_KEY, new CacheTtlPolicy(0.2, 1.0));
+        registerTtlPolicy(CACHE_SHOP_TYPE_KEY, new CacheTtlPolicy(0.1, 1.0));
+        registerTtlPolicy(CACHE_VOUCHER_LIST_KEY, new CacheTtlPolicy(0.2, 1.0));
+    }
+
+    public void registerTtlPolicy(String keyPrefix, CacheTtlPolicy policy) {
+        ttlPolicies.put(keyPrefix, policy);
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), jitter(key, unit.toMillis(time)), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 批量写入缓存，过期时间与set相同，所有命令一次发送，用于预热等批量写入
+     */
+    public void setAll(Map<String, ?> values, Long time, TimeUnit unit) {
+        if (values.isEmpty()) {
+            return;
+        }
+        long millis = unit.toMillis(time);
+        redisBulk.pipeline(async -> {
+            List<RedisFuture<?>> futures = new ArrayList<>(values.size());
+            values.forEach((key, value) -> futures.add(async.psetex(key, jitter(key, millis), JSONUtil.toJsonStr(value))));
+            return futures;
+        });
     }
 
     public void setWithLogicExpire(String key, Object value, Long time, TimeUnit unit) {
         // 设置逻辑过期
         RedisData redisData = new RedisData();
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        redisData.setExpireTime(LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(jitter(key, unit.toMillis(time)))));
         // 写入redis
         stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
 //        stringRedisTemplate.expire(key, time, unit);
     }
 
+    /**
+     * 原地修改缓存：缓存仍为expect时替换为value并保留过期时间，否则删除缓存，由下一次查询重建。
+     * 对应的响应缓存直接删除
+     * @return 是否替换成功
+     */
+    public boolean replaceIfUnchanged(String key, String expect, Object value) {
+        Long result = stringRedisTemplate.execute(CAS_SCRIPT, Collections.singletonList(key), expect, JSONUtil.toJsonStr(value));
+        stringRedisTemplate.delete(ResponseCache.keyOf(key));
+        return result != null && result == 1L;
+    }
+
+    /**
+     * 批量原地修改缓存，语义同replaceIfUnchanged，所有命令一次发送
+     * @param expects 每个key预期的缓存值，为空时只删除响应缓存
+     */
+    public void replaceAllIfUnchanged(List<String> keys, List<String> expects, List<?> values) {
+        String script = CAS_SCRIPT.getScriptAsString();
+        String sha = CAS_SCRIPT.getSha1();
+        redisBulk.pipeline(async -> {
+            List<RedisFuture<?>> futures = new ArrayList<>(keys.size() * 2 + 1);
+            // 同一连接上的命令按顺序执行，先加载脚本，保证后续的evalsha能找到脚本
+            futures.add(async.scriptLoad(script));
+            for (int i = 0; i < keys.size(); i++) {
+                // 响应缓存直接删除，单key删除，集群模式下不跨slot
+                futures.add(async.del(ResponseCache.keyOf(keys.get(i))));
+                if (StrUtil.isBlank(expects.get(i))) {
+                    continue;
+                }
+                futures.add(async.evalsha(sha, ScriptOutputType.INTEGER, new String[]{keys.get(i)},
+                        expects.get(i), JSONUtil.toJsonStr(values.get(i))));
+            }
+            return futures;
+        });
+    }
+
     public <R, ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
 
-        // 1. 从redis查询商户缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        // 1. 从redis查询商户缓存，同时查询剩余过期时间
+        CacheEntry entry = getWithTtl(key);
+        String json = entry.json;
 
         // 2. 判断商户是否存在redis缓存
         if (StrUtil.isNotBlank(json)) {
+            // 即将过期，概率性提前异步刷新
+            refreshAheadIfNeeded(keyPrefix, id, dbFallback, time, unit, entry.ttlMillis);
             // 3. 存在，返回商户
             return JSONUtil.toBean(json, type);
         }
@@ -55,19 +157,24 @@ public class CacheClient {
             return null;
         }
 
-        // 4. 不存在，查询数据库
-        R r = dbFallback.apply(id);
+        // 4. 不存在，查询数据库，繁忙时返回等待期间其他线程写入的缓存
+        R r;
+        try {
+            r = loadFromDb(keyPrefix, id, dbFallback);
+        } catch (CacheBusyException e) {
+            return readAfterBusy(key, type, e);
+        }
 
         // 5. 不存在，返回错误
         if (r == null) {
             // 将空值保存到redis中，解决缓存穿透
-            stringRedisTemplate.opsForValue().set(key, " ", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+            this.set(key, " ", CACHE_NULL_TTL, TimeUnit.MINUTES);
             // 返回错误
             return null;
         }
 
         // 6. 存在，保存商户到redis
-        this.set(key, JSONUtil.toJsonStr(r), time, unit);
+        this.set(key, r, time, unit);
 
         // 7. 返回商户
         return r;
@@ -79,11 +186,14 @@ public class CacheClient {
 
         String key = keyPrefix + id;
 
-        // 1. 从redis查询商户缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        // 1. 从redis查询商户缓存，同时查询剩余过期时间
+        CacheEntry entry = getWithTtl(key);
+        String json = entry.json;
 
         // 2. 判断商户是否存在redis缓存
         if (StrUtil.isNotBlank(json)) {
+            // 即将过期，概率性提前异步刷新，避免过期瞬间大量请求同时重建
+            refreshAheadIfNeeded(keyPrefix, id, dbFallback, time, unit, entry.ttlMillis);
             // 3. 存在，返回商户
             return JSONUtil.toBean(json, type);
         }
@@ -94,54 +204,50 @@ public class CacheClient {
         }
 
         // 4. 实现缓存重建
-        // 4.1 获取互斥锁
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
+        // 4.1 获取互斥锁，等待期间由解锁通知唤醒，锁由看门狗续期，数据库查询再慢也不会丢锁
+        ILock lock = redisLockClient.getLock(key);
+        if (!lock.tryLock(CACHE_REBUILD_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            return readAfterBusy(key, type, new CacheBusyException());
+        }
 
-        R r = null;
+        R r;
         try {
-            boolean isLock = tryLock(lockKey);
-
-            // 4.2 判断是否获取成功
-            if (!isLock) {
-                // 4.3 失败，则休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
+            // 4.2 获取锁之后再次查询缓存，等待期间其他线程可能已经完成重建
+            json = stringRedisTemplate.opsForValue().get(key);
+            if (StrUtil.isNotBlank(json)) {
+                return JSONUtil.toBean(json, type);
+            }
+            if (json != null) {
+                return null;
             }
 
-            // 4.4 成功，根据id查询数据库
-            r = dbFallback.apply(id);
+            // 4.3 根据id查询数据库，繁忙时返回等待期间其他线程写入的缓存
+            try {
+                r = loadFromDb(keyPrefix, id, dbFallback);
+            } catch (CacheBusyException e) {
+                return readAfterBusy(key, type, e);
+            }
 
             // 5. 不存在，返回错误
             if (r == null) {
                 // 将空值保存到redis中，解决缓存穿透
-                this.set(key, " ", time,  unit);
+                this.set(key, " ", CACHE_NULL_TTL, TimeUnit.MINUTES);
                 // 返回错误
                 return null;
             }
 
             // 6. 存在，保存商户到redis
-            this.set(key, JSONUtil.toJsonStr(r), time, unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            this.set(key, r, time, unit);
         } finally {
 
             // 7. 释放互斥锁
-            unlock(lockKey);
+            lock.unlock();
         }
 
         // 8. 返回商户
         return r;
     }
 
-    private boolean tryLock(String lockKey) {
-
-        return Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(lockKey, "1", RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS));
-    }
-
-    private void unlock(String lockKey) {
-        stringRedisTemplate.delete(lockKey);
-    }
-
 
 
     private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
@@ -170,20 +276,22 @@ public class CacheClient {
         }
         // 5.2 已过期，需要缓存重建
         // 6. 缓存重建
-        // 6.1 获取互斥锁
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
+        // 6.1 获取互斥锁，锁交给重建线程释放，不能按当前线程重入
+        ILock lock = redisLockClient.getHandoffLock(key);
         // 6.2 判断是否获取成功
-        boolean isLock = tryLock(lockKey);
-        if (isLock) {
+        if (lock.tryLock(0, TimeUnit.MILLISECONDS)) {
             // 6.3 成功，开启独立线程，实现缓存重建
             CACHE_REBUILD_EXECUTOR.submit(() -> {
                 try {
                     // 重建缓存
-                    this.setWithLogicExpire(key, dbFallback.apply(id), time, unit);
+                    this.setWithLogicExpire(key, loadFromDb(keyPrefix, id, dbFallback), time, unit);
+                } catch (CacheBusyException e) {
+                    // 数据库繁忙，本次不重建，调用方已拿到旧值，下一次查询再重建
+                    log.debug("缓存重建繁忙，继续使用旧值，key：{}", key);
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 } finally {
-                    unlock(lockKey);
+                    lock.unlock();
                 }
             });
 
@@ -194,4 +302,131 @@ public class CacheClient {
 
     }
 
+    /**
+     * 查询数据库：受全局并发数限制，并记录重建耗时
+     */
+    private <R, ID> R loadFromDb(String keyPrefix, ID id, Function<ID, R> dbFallback) {
+        boolean acquired;
+        try {
+            acquired = dbLoadPermits.tryAcquire(CACHE_DB_LOAD_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        if (!acquired) {
+            throw new CacheBusyException();
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            R r = dbFallback.apply(id);
+            rebuildCosts.put(keyPrefix, System.currentTimeMillis() - begin);
+            return r;
+        } finally {
+            dbLoadPermits.release();
+        }
+    }
+
+    /**
+     * 重建繁忙时再读一次缓存：等待期间其他线程可能已经写入，有值（含空值）时直接返回，否则抛出繁忙异常，由全局异常处理返回失败
+     */
+    private <R> R readAfterBusy(String key, Class<R> type, CacheBusyException e) {
+        String json = stringRedisTemplate.opsForValue().get(key);
+        if (StrUtil.isNotBlank(json)) {
+            return JSONUtil.toBean(json, type);
+        }
+        if (json != null) {
+            return null;
+        }
+        throw e;
+    }
+
+    /**
+     * XFetch提前刷新：剩余时间越短、重建越慢，提前刷新的概率越大。
+     * 满足 -cost * beta * ln(random) >= ttl 时异步重建缓存，当前请求仍返回旧值
+     */
+    private <R, ID> void refreshAheadIfNeeded(String keyPrefix, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit, long ttlMillis) {
+        if (ttlMillis <= 0) {
+            return;
+        }
+        String key = keyPrefix + id;
+        double beta = policyOf(key).getEarlyRefreshBeta();
+        Long cost = rebuildCosts.get(keyPrefix);
+        if (beta <= 0 || cost == null) {
+            return;
+        }
+        double gap = -cost * beta * Math.log(ThreadLocalRandom.current().nextDouble());
+        if (gap < ttlMillis) {
+            return;
+        }
+        // 获取互斥锁，保证只有一个线程提前刷新，锁交给重建线程释放，不能按当前线程重入
+        ILock lock = redisLockClient.getHandoffLock(key);
+        if (!lock.tryLock(0, TimeUnit.MILLISECONDS)) {
+            return;
+        }
+        CACHE_REBUILD_EXECUTOR.submit(() -> {
+            try {
+                R r = loadFromDb(keyPrefix, id, dbFallback);
+                if (r == null) {
+                    this.set(key, " ", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                } else {
+                    this.set(key, r, time, unit);
+                }
+            } catch (Exception e) {
+                log.warn("提前刷新缓存失败，key：{}", key, e);
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    /**
+     * 一次往返同时查询缓存值和剩余过期时间
+     */
+    private CacheEntry getWithTtl(String key) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.get(key);
+            conn.pTtl(key);
+            return null;
+        });
+        Long ttl = (Long) results.get(1);
+        return new CacheEntry((String) results.get(0), ttl == null ? -1 : ttl);
+    }
+
+    /**
+     * 按策略为过期时间增加随机抖动
+     */
+    private long jitter(String key, long ttlMillis) {
+        double ratio = policyOf(key).getJitterRatio();
+        if (ratio <= 0) {
+            return ttlMillis;
+        }
+        return ttlMillis + RandomUtil.randomLong((long) (ttlMillis * ratio) + 1);
+    }
+
+    /**
+     * 按最长前缀匹配过期策略
+     */
+    private CacheTtlPolicy policyOf(String key) {
+        CacheTtlPolicy policy = CacheTtlPolicy.DEFAULT;
+        int matched = -1;
+        for (Map.Entry<String, CacheTtlPolicy> e : ttlPolicies.entrySet()) {
+            if (key.startsWith(e.getKey()) && e.getKey().length() > matched) {
+                policy = e.getValue();
+                matched = e.getKey().length();
+            }
+        }
+        return policy;
+    }
+
+    private static class CacheEntry {
+        private final String json;
+        private final long ttlMillis;
+
+        private CacheEntry(String json, long ttlMillis) {
+            this.json = json;
+            this.ttlMillis = ttlMillis;
+        }
+    }
+
 }
@@ -0,0 +1,103 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static com.hmdp.utils.RedisConstants.CACHE_DELAY_DELETE_MILLIS;
+
+/**
+ * 缓存失效管道：事务提交后删除缓存，并延迟二次删除，删除失败的key放入本地队列重试
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    private static final int RETRY_QUEUE_CAPACITY = 10000;
+    private static final int RETRY_BATCH_SIZE = 100;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final BlockingQueue<String> retryQueue = new LinkedBlockingQueue<>(RETRY_QUEUE_CAPACITY);
+
+    private final ScheduledExecutorService delayExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "cache-delay-delete");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public CacheInvalidator(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 存在事务时，在事务提交之后删除缓存；没有事务时立即删除
+     */
+    public void evictAfterCommit(String... keys) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evict(keys);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                evict(keys);
+            }
+        });
+    }
+
+    /**
+     * 立即删除缓存，并延迟二次删除，清理删除期间被并发读请求写回的旧数据。数据缓存对应的响应缓存一并删除
+     */
+    public void evict(String... keys) {
+        List<String> keyList = new ArrayList<>(keys.length * 2);
+        for (String key : keys) {
+            keyList.add(key);
+            keyList.add(ResponseCache.keyOf(key));
+        }
+        delete(keyList);
+        delayExecutor.schedule(() -> delete(keyList), CACHE_DELAY_DELETE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void delete(List<String> keys) {
+        try {
+            stringRedisTemplate.delete(keys);
+        } catch (Exception e) {
+            log.warn("删除缓存失败，加入重试队列，keys：{}", keys, e);
+            for (String key : keys) {
+                if (!retryQueue.offer(key)) {
+                    log.error("缓存删除重试队列已满，丢弃key：{}", key);
+                }
+            }
+        }
+    }
+
+    @Scheduled(fixedDelay = 1000)
+    public void retryFailedDeletes() {
+        List<String> keys = new ArrayList<>(RETRY_BATCH_SIZE);
+        while (retryQueue.drainTo(keys, RETRY_BATCH_SIZE) > 0) {
+            try {
+                stringRedisTemplate.delete(keys);
+            } catch (Exception e) {
+                // redis仍不可用，放回队列，等待下一轮
+                log.warn("重试删除缓存失败，keys：{}", keys);
+                keys.forEach(retryQueue::offer);
+                return;
+            }
+            keys.clear();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        delayExecutor.shutdown();
+    }
+}
@@ -0,0 +1,24 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 缓存过期策略，按key前缀配置
+ */
+@Data
+@AllArgsConstructor
+public class CacheTtlPolicy {
+
+    public static final CacheTtlPolicy DEFAULT = new CacheTtlPolicy(0.1, 1.0);
+
+    /**
+     * 过期时间随机抖动比例，例如0.2表示在原过期时间上随机增加0~20%，避免大量key同时过期
+     */
+    private double jitterRatio;
+
+    /**
+     * 提前刷新系数（XFetch算法中的beta），越大越早刷新，0表示不提前刷新
+     */
+    private double earlyRefreshBeta;
+}
@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.Validator;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.StrUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+
+/**
+ * 解析客户端IP：默认只使用连接的对端地址，X-Forwarded-For等请求头可以由客户端任意伪造，
+ * 只有请求来自配置的可信代理时，才从X-Forwarded-For中由右向左取第一个不是可信代理的地址
+ */
+@Component
+public class ClientIpResolver {
+
+    private static final String FORWARDED_FOR = "X-Forwarded-For";
+
+    /**
+     * 可信代理，IP或IPv4网段（CIDR）
+     */
+    private final List<String> trustedProxies;
+
+    public ClientIpResolver(@Value("${hmdp.web.trusted-proxies:}") List<String> trustedProxies) {
+        this.trustedProxies = trustedProxies;
+    }
+
+    public String resolve(HttpServletRequest request) {
+        String remote = request.getRemoteAddr();
+        if (!isTrusted(remote)) {
+            return remote;
+        }
+        // 由右向左跳过可信代理，左侧的地址可能由客户端伪造
+        String header = request.getHeader(FORWARDED_FOR);
+        if (StrUtil.isBlank(header)) {
+            return remote;
+        }
+        String[] hops = header.split(",");
+        for (int i = hops.length - 1; i >= 0; i--) {
+            String hop = hops[i].trim();
+            if (hop.isEmpty()) {
+                continue;
+            }
+            // 不是合法的IP（例如unknown、带端口），不再向左解析，使用最后一个可信代理的地址
+            if (!Validator.isIpv4(hop) && !Validator.isIpv6(hop)) {
+                return remote;
+            }
+            if (!isTrusted(hop)) {
+                return hop;
+            }
+            remote = hop;
+        }
+        return remote;
+    }
+
+    private boolean isTrusted(String ip) {
+        if (StrUtil.isBlank(ip)) {
+            return false;
+        }
+        for (String proxy : trustedProxies) {
+            if (proxy.indexOf('/') > 0) {
+                if (Validator.isIpv4(ip) && NetUtil.isInRange(ip, proxy)) {
+                    return true;
+                }
+            } else if (proxy.equals(ip)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
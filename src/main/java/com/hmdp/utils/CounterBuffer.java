@@ -0,0 +1,34 @@
+package com.hmdp.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 计数器写缓冲：按id累加增量，由定时任务批量取出后刷回数据库
+ */
+public class CounterBuffer {
+
+    private final ConcurrentHashMap<Long, LongAdder> counters = new ConcurrentHashMap<>();
+
+    public void add(Long id, long delta) {
+        counters.computeIfAbsent(id, k -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * 取出并清空所有累计的增量，增量为0的id会被忽略
+     */
+    public Map<Long, Long> drain() {
+        Map<Long, Long> deltas = new HashMap<>();
+        counters.forEach((id, adder) -> {
+            // 先读再减去读到的值，期间并发的累加会留在adder中，留给下一轮，不会丢失
+            long sum = adder.sum();
+            if (sum != 0) {
+                adder.add(-sum);
+                deltas.put(id, sum);
+            }
+        });
+        return deltas;
+    }
+}
@@ -0,0 +1,29 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式锁
+ */
+public interface ILock {
+
+    /**
+     * 尝试获取锁，获取失败时最多等待waitTime
+     * @param leaseTime 锁的过期时间，-1表示由看门狗自动续期直到unlock
+     * @return 是否获取成功，等待期间被中断时返回false并保留中断标记
+     */
+    boolean tryLock(long waitTime, long leaseTime, TimeUnit unit);
+
+    /**
+     * 尝试获取锁，由看门狗自动续期
+     */
+    default boolean tryLock(long waitTime, TimeUnit unit) {
+        return tryLock(waitTime, -1, unit);
+    }
+
+    /**
+     * 释放锁，重入时只减少一次重入次数
+     * @throws IllegalMonitorStateException 锁已过期或不属于当前持有者
+     */
+    void unlock();
+}
@@ -0,0 +1,365 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.UPLOAD_REF_KEY;
+import static com.hmdp.utils.RedisConstants.UPLOAD_USER_REF_KEY;
+
+/**
+ * 图片存储：上传时以NIO通道流式写入磁盘并按内容去重，读取时通过sendfile/transferTo零拷贝输出，删除异步执行
+ */
+@Slf4j
+@Component
+public class ImageStore {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    public static final String CACHE_CONTROL_IMMUTABLE = "public, max-age=31536000, immutable";
+
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    private static final String STAGING_DIR = "blogs/.staging";
+
+    /**
+     * 识别图片格式需要的文件头长度
+     */
+    private static final int HEAD_SIZE = 12;
+
+    private static final DefaultRedisScript<Long> REF_SCRIPT;
+    static {
+        REF_SCRIPT = new DefaultRedisScript<>();
+        REF_SCRIPT.setLocation(new ClassPathResource("lua/upload_ref.lua"));
+        REF_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 按文件名分段加锁，保证同一文件的引用计数与文件的创建、删除互斥（单节点）
+     */
+    private static final Object[] LOCKS = new Object[64];
+    static {
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new Object();
+        }
+    }
+
+    private final Path root = Paths.get(SystemConstants.IMAGE_UPLOAD_DIR).toAbsolutePath().normalize();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ExecutorService deleteExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(10000), r -> {
+                Thread t = new Thread(r, "image-delete");
+                t.setDaemon(true);
+                return t;
+            });
+
+    public ImageStore(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 保存上传的图片：写入磁盘的同时计算SHA-256，内容相同的图片只保存一份，以引用计数记录使用次数，
+     * 同时记录上传用户持有的引用，删除时只能释放自己持有的引用
+     * @return 文件名，形如 /blogs/{d1}/{d2}/{sha256}.{suffix}，后缀由文件内容识别；不是支持的图片格式时返回null
+     */
+    public String save(Long userId, MultipartFile image) throws IOException {
+        // 1. 写入临时文件，同一趟读取中计算摘要
+        Path staging = root.resolve(STAGING_DIR);
+        Files.createDirectories(staging);
+        Path tmp = staging.resolve(UUID.randomUUID().toString());
+        MessageDigest digest = sha256();
+        byte[] head = new byte[HEAD_SIZE];
+        int headLength = 0;
+        try (InputStream is = image.getInputStream();
+             ReadableByteChannel in = Channels.newChannel(is);
+             FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                // 记录文件头，用于识别图片格式
+                for (int i = buffer.position(); i < buffer.limit() && headLength < HEAD_SIZE; i++) {
+                    head[headLength++] = buffer.get(i);
+                }
+                buffer.mark();
+                digest.update(buffer);
+                buffer.reset();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        // 2. 按文件头识别格式，不使用用户提交的文件名后缀，相同内容总是得到相同的文件名
+        String suffix = detectSuffix(Arrays.copyOf(head, headLength));
+        if (suffix == null) {
+            Files.deleteIfExists(tmp);
+            return null;
+        }
+        String fileName = createFileName(HexUtil.encodeHexStr(digest.digest()), suffix);
+        Path target = resolve(fileName);
+        Files.createDirectories(target.getParent());
+
+        // 3. 引用计数+1，文件已存在则丢弃临时文件，否则原子重命名，读请求不会读到写了一半的文件
+        synchronized (lockOf(fileName)) {
+            changeRef(userId, fileName, 1);
+            if (Files.exists(target)) {
+                Files.deleteIfExists(tmp);
+            } else {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        return fileName;
+    }
+
+    /**
+     * 输出图片，支持Range、ETag和浏览器缓存
+     */
+    public void serve(String fileName, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        serve(fileName, CACHE_CONTROL_IMMUTABLE, request, response);
+    }
+
+    public void serve(String fileName, String cacheControl, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // 1. 校验文件
+        Path file = resolve(fileName);
+        if (file == null || !Files.isRegularFile(file)) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long length = Files.size(file);
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+
+        // 2. 设置缓存相关的响应头
+        String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        if (etag.equals(request.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType(MediaTypeFactory.getMediaType(file.getFileName().toString())
+                .orElse(MediaType.APPLICATION_OCTET_STREAM).toString());
+
+        // 3. 解析Range，只支持单个区间
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (StrUtil.startWith(range, "bytes=") && !range.contains(",")) {
+            long[] r = parseRange(range.substring(6), length);
+            if (r == null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            start = r[0];
+            end = r[1];
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+        if ("HEAD".equalsIgnoreCase(request.getMethod())) {
+            return;
+        }
+
+        // 4. 容器支持sendfile时交给Tomcat直接由内核发送文件
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, file.toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, end + 1);
+            return;
+        }
+
+        // 5. 否则通过FileChannel.transferTo输出
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (count > 0) {
+                long written = in.transferTo(position, count, out);
+                if (written <= 0) {
+                    break;
+                }
+                position += written;
+                count -= written;
+            }
+        }
+    }
+
+    /**
+     * 释放用户持有的一个图片引用：引用计数-1，没有引用时异步删除图片及其关联文件（如缩略图）
+     * @return 该用户是否持有这张图片的引用
+     */
+    public boolean release(Long userId, String fileName, List<String> dependents) {
+        Path file = resolve(fileName);
+        if (file == null || Files.isDirectory(file)) {
+            return false;
+        }
+        synchronized (lockOf(fileName)) {
+            long refs = changeRef(userId, fileName, -1);
+            if (refs < 0) {
+                return false;
+            }
+            if (refs > 0) {
+                return true;
+            }
+        }
+        deleteExecutor.execute(() -> {
+            synchronized (lockOf(fileName)) {
+                // 删除前再次确认，期间可能有相同内容的图片被重新上传
+                if (stringRedisTemplate.opsForHash().hasKey(UPLOAD_REF_KEY, fileName)) {
+                    return;
+                }
+                delete(fileName);
+                dependents.forEach(this::delete);
+            }
+        });
+        return true;
+    }
+
+    private void delete(String fileName) {
+        Path file = resolve(fileName);
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("删除图片失败，{}", fileName, e);
+        }
+    }
+
+    /**
+     * 将文件名解析为存储目录下的路径，越界时返回null
+     */
+    public Path resolve(String fileName) {
+        if (StrUtil.isBlank(fileName)) {
+            return null;
+        }
+        Path path = root.resolve(StrUtil.removePrefix(fileName, "/")).normalize();
+        return path.startsWith(root) && !path.equals(root) ? path : null;
+    }
+
+    private long[] parseRange(String spec, long length) {
+        String startStr = StrUtil.subBefore(spec, "-", false).trim();
+        String endStr = StrUtil.subAfter(spec, "-", false).trim();
+        try {
+            long start;
+            long end;
+            if (startStr.isEmpty()) {
+                // 后缀区间，例如 bytes=-500 表示最后500个字节
+                long suffix = Long.parseLong(endStr);
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(startStr);
+                end = endStr.isEmpty() ? length - 1 : Math.min(Long.parseLong(endStr), length - 1);
+            }
+            return start <= end && start < length ? new long[]{start, end} : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 修改引用计数，返回剩余的总引用数，释放时用户没有持有引用返回-1
+     */
+    private long changeRef(Long userId, String fileName, int delta) {
+        Long refs = stringRedisTemplate.execute(REF_SCRIPT,
+                Arrays.asList(UPLOAD_REF_KEY, UPLOAD_USER_REF_KEY + userId), fileName, String.valueOf(delta));
+        return refs == null ? -1 : refs;
+    }
+
+    /**
+     * 按文件头识别图片格式，返回文件后缀，不支持的格式返回null
+     */
+    private static String detectSuffix(byte[] head) {
+        if (startsWith(head, 0, 0xFF, 0xD8, 0xFF)) {
+            return "jpg";
+        }
+        if (startsWith(head, 0, 0x89, 'P', 'N', 'G')) {
+            return "png";
+        }
+        if (startsWith(head, 0, 'G', 'I', 'F', '8')) {
+            return "gif";
+        }
+        if (startsWith(head, 0, 'R', 'I', 'F', 'F') && startsWith(head, 8, 'W', 'E', 'B', 'P')) {
+            return "webp";
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] head, int offset, int... magic) {
+        if (head.length < offset + magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((head[offset + i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String createFileName(String sha256, String suffix) {
+        // 按摘要的前两位生成目录
+        int d1 = Character.digit(sha256.charAt(0), 16);
+        int d2 = Character.digit(sha256.charAt(1), 16);
+        // 生成文件名
+        return StrUtil.format("/blogs/{}/{}/{}.{}", d1, d2, sha256, suffix);
+    }
+
+    private Object lockOf(String fileName) {
+        return LOCKS[fileName.hashCode() & (LOCKS.length - 1)];
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        deleteExecutor.shutdown();
+    }
+}
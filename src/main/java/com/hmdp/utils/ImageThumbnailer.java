@@ -0,0 +1,215 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缩略图生成：上传后在有界线程池中异步生成固定宽度的缩略图，与原图保存在同一目录下
+ */
+@Slf4j
+@Component
+public class ImageThumbnailer {
+
+    /**
+     * 缩略图宽度，从小到大
+     */
+    public static final int[] THUMBNAIL_WIDTHS = {320, 640};
+
+    private static final String WEBP = "webp";
+
+    /**
+     * 允许解码的最大像素数，超过时不生成缩略图，防止小文件解码出超大图片耗尽内存（解压炸弹）
+     */
+    private static final long MAX_PIXELS = 40_000_000L;
+
+    /**
+     * JDK默认不带WebP编码器，classpath中存在WebP插件时才生成WebP格式
+     */
+    private static final boolean WEBP_SUPPORTED = ImageIO.getImageWritersByFormatName(WEBP).hasNext();
+
+    private final ImageStore imageStore;
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1000), r -> {
+                Thread t = new Thread(r, "image-thumbnail");
+                t.setDaemon(true);
+                return t;
+            }, (r, e) -> log.warn("缩略图任务队列已满，放弃生成，访问时将返回原图"));
+
+    public ImageThumbnailer(ImageStore imageStore) {
+        this.imageStore = imageStore;
+    }
+
+    /**
+     * 提交缩略图生成任务
+     */
+    public void submit(String fileName) {
+        executor.execute(() -> {
+            try {
+                generate(fileName);
+            } catch (Exception e) {
+                log.warn("生成缩略图失败，{}", fileName, e);
+            }
+        });
+    }
+
+    /**
+     * 选择最合适的图片：宽度不小于期望宽度的最小缩略图，浏览器支持时优先WebP，都不存在时返回原图
+     */
+    public String bestVariant(String fileName, Integer width, boolean acceptWebp) {
+        if (width == null) {
+            return fileName;
+        }
+        for (int w : THUMBNAIL_WIDTHS) {
+            if (w < width) {
+                continue;
+            }
+            if (acceptWebp && WEBP_SUPPORTED) {
+                String webp = variantName(fileName, w, WEBP);
+                if (exists(webp)) {
+                    return webp;
+                }
+            }
+            String thumbnail = variantName(fileName, w, formatOf(fileName));
+            if (exists(thumbnail)) {
+                return thumbnail;
+            }
+        }
+        return fileName;
+    }
+
+    /**
+     * 图片的所有缩略图文件名，用于删除
+     */
+    public List<String> variantNames(String fileName) {
+        List<String> names = new ArrayList<>();
+        for (int w : THUMBNAIL_WIDTHS) {
+            names.add(variantName(fileName, w, formatOf(fileName)));
+            names.add(variantName(fileName, w, WEBP));
+        }
+        return names;
+    }
+
+    private void generate(String fileName) throws IOException {
+        // 1. 读取原图，不支持的格式直接跳过
+        Path source = imageStore.resolve(fileName);
+        if (source == null || !Files.isRegularFile(source)) {
+            return;
+        }
+        String format = formatOf(fileName);
+        // 重复上传的图片已经生成过缩略图
+        if (exists(variantName(fileName, THUMBNAIL_WIDTHS[0], format))) {
+            return;
+        }
+        BufferedImage image = read(source);
+        if (image == null) {
+            return;
+        }
+        for (int w : THUMBNAIL_WIDTHS) {
+            // 2. 原图不够宽，不放大
+            if (image.getWidth() <= w) {
+                break;
+            }
+            // 3. 等比缩放
+            BufferedImage thumbnail = scale(image, w, "png".equals(format));
+            write(thumbnail, format, variantName(fileName, w, format));
+            if (WEBP_SUPPORTED) {
+                write(thumbnail, WEBP, variantName(fileName, w, WEBP));
+            }
+        }
+    }
+
+    /**
+     * 先只读取图片头中的宽高，像素数超过上限时不解码，返回null
+     */
+    private BufferedImage read(Path source) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > MAX_PIXELS) {
+                    log.warn("图片像素数{}超过上限{}，不生成缩略图，{}", pixels, MAX_PIXELS, source.getFileName());
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage scale(BufferedImage image, int width, boolean keepAlpha) {
+        int height = Math.max(1, (int) ((long) image.getHeight() * width / image.getWidth()));
+        int type = keepAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage thumbnail = new BufferedImage(width, height, type);
+        Graphics2D g = thumbnail.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return thumbnail;
+    }
+
+    private void write(BufferedImage image, String format, String fileName) throws IOException {
+        // 先写临时文件再原子重命名，避免读到写了一半的缩略图
+        Path target = imageStore.resolve(fileName);
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        if (!ImageIO.write(image, format, tmp.toFile())) {
+            Files.deleteIfExists(tmp);
+            return;
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private boolean exists(String fileName) {
+        Path path = imageStore.resolve(fileName);
+        return path != null && Files.isRegularFile(path);
+    }
+
+    /**
+     * 缩略图文件名，形如 /blogs/{d1}/{d2}/{name}_w320.jpg
+     */
+    private String variantName(String fileName, int width, String format) {
+        String base = StrUtil.subBefore(fileName, ".", true);
+        return StrUtil.format("{}_w{}.{}", base, width, format);
+    }
+
+    private String formatOf(String fileName) {
+        // png保留透明通道，其他格式统一输出jpg
+        return "png".equalsIgnoreCase(StrUtil.subAfter(fileName, ".", true)) ? "png" : "jpg";
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,51 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import org.springframework.stereotype.Component;
+
+/**
+ * 本地令牌桶限流，作为redis限流之前的快速拦截，明显的滥用请求不产生任何网络IO
+ */
+@Component
+public class LocalRateLimiter {
+
+    private static final int MAX_BUCKETS = 100000;
+
+    private final LRUCache<String, TokenBucket> buckets = CacheUtil.newLRUCache(MAX_BUCKETS);
+
+    /**
+     * @param key 限流key
+     * @param capacity 桶容量，即允许的突发请求数
+     * @param permitsPerSecond 每秒补充的令牌数
+     */
+    public boolean tryAcquire(String key, int capacity, double permitsPerSecond) {
+        TokenBucket bucket = buckets.get(key, false, () -> new TokenBucket(capacity, permitsPerSecond));
+        return bucket.tryAcquire();
+    }
+
+    private static class TokenBucket {
+        private final int capacity;
+        private final double permitsPerNano;
+        private double tokens;
+        private long lastRefillNanos;
+
+        private TokenBucket(int capacity, double permitsPerSecond) {
+            this.capacity = capacity;
+            this.permitsPerNano = permitsPerSecond / 1_000_000_000d;
+            this.tokens = capacity;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        private synchronized boolean tryAcquire() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * permitsPerNano);
+            lastRefillNanos = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 登录会话，支持两种token：
+ * opaque：随机token，会话以紧凑的二进制格式保存在redis的一个string中，一次lua调用完成读取和续期；
+ * signed：自包含的签名token，本地校验签名和有效期，不访问redis，注销的token通过撤销列表（redis + pub/sub同步到本地）拒绝。
+ * 两种token可以同时被识别，切换模式时已登录的用户不受影响
+ */
+@Slf4j
+@Component
+public class LoginSessions implements MessageListener {
+
+    private static final DefaultRedisScript<byte[]> GET_SCRIPT;
+    static {
+        GET_SCRIPT = new DefaultRedisScript<>();
+        GET_SCRIPT.setLocation(new ClassPathResource("lua/session_get.lua"));
+        GET_SCRIPT.setResultType(byte[].class);
+    }
+
+    private static final String MODE_SIGNED = "signed";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final byte VERSION = 1;
+    private static final int JTI_BYTES = 16;
+    private static final char SIGNATURE_SEPARATOR = '.';
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final boolean signedMode;
+
+    private final long signedTtlSeconds;
+
+    private final SecretKeySpec key;
+
+    private final ThreadLocal<Mac> macs;
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * 已撤销的签名token，key为token id，value为过期时间（秒），过期后token本身已失效，可以移除
+     */
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+
+    public LoginSessions(StringRedisTemplate stringRedisTemplate,
+                         RedisMessageListenerContainer listenerContainer,
+                         @Value("${hmdp.session.mode:opaque}") String mode,
+                         @Value("${hmdp.session.secret:}") String secret,
+                         @Value("${hmdp.session.signed-ttl-minutes:1440}") long signedTtlMinutes) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.signedMode = MODE_SIGNED.equalsIgnoreCase(mode);
+        this.signedTtlSeconds = TimeUnit.MINUTES.toSeconds(signedTtlMinutes);
+        if (signedMode && StrUtil.length(secret) < 32) {
+            throw new IllegalArgumentException("signed模式需要配置至少32个字符的hmdp.session.secret");
+        }
+        if (StrUtil.isEmpty(secret)) {
+            this.key = null;
+            this.macs = null;
+            return;
+        }
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        // 配置了密钥才可能存在签名token，需要同步撤销列表
+        listenerContainer.addMessageListener(this, new ChannelTopic(LOGIN_REVOKED_CHANNEL));
+        syncRevoked();
+    }
+
+    /**
+     * 创建会话，返回token
+     * @param deleteKeys 与写入会话在同一个pipeline中删除的key，例如已使用的验证码
+     */
+    public String issue(UserDTO user, String... deleteKeys) {
+        if (signedMode) {
+            // 签名token不需要写入会话
+            if (deleteKeys.length > 0) {
+                stringRedisTemplate.delete(Arrays.asList(deleteKeys));
+            }
+            byte[] jti = new byte[JTI_BYTES];
+            random.nextBytes(jti);
+            return sign(jti, System.currentTimeMillis() / 1000 + signedTtlSeconds, user);
+        }
+        String token = UUID.randomUUID().toString();
+        byte[] sessionKey = (LOGIN_USER_KEY + token).getBytes(StandardCharsets.UTF_8);
+        byte[] session = encode(user);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.set(sessionKey, session, Expiration.from(LOGIN_USER_TTL, TimeUnit.MINUTES),
+                    RedisStringCommands.SetOption.upsert());
+            for (String deleteKey : deleteKeys) {
+                connection.del(deleteKey.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        return token;
+    }
+
+    /**
+     * 根据token查询登录用户，无效或已过期时返回null
+     */
+    public UserDTO resolve(String token) {
+        if (token.indexOf(SIGNATURE_SEPARATOR) >= 0) {
+            return verify(token);
+        }
+        // 一次lua调用读取会话，并按需续期
+        byte[] session = stringRedisTemplate.execute(GET_SCRIPT, RedisSerializer.string(), RedisSerializer.byteArray(),
+                Collections.singletonList(LOGIN_USER_KEY + token),
+                String.valueOf(TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL)),
+                String.valueOf(TimeUnit.MINUTES.toMillis(LOGIN_USER_REFRESH_MINUTES)));
+        return session == null ? null : decode(ByteBuffer.wrap(session));
+    }
+
+    /**
+     * 注销：删除会话，签名token加入撤销列表并通知所有节点
+     */
+    public void revoke(String token) {
+        if (token.indexOf(SIGNATURE_SEPARATOR) < 0) {
+            stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+            return;
+        }
+        ByteBuffer payload = verifiedPayload(token);
+        if (payload == null) {
+            return;
+        }
+        payload.get();
+        String jti = readJti(payload);
+        long expireAt = payload.getLong();
+        revoked.put(jti, expireAt);
+        stringRedisTemplate.opsForZSet().add(LOGIN_REVOKED_KEY, jti, expireAt);
+        stringRedisTemplate.convertAndSend(LOGIN_REVOKED_CHANNEL, jti + ":" + expireAt);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.lastIndexOf(':');
+        if (index > 0) {
+            revoked.put(body.substring(0, index), Long.parseLong(body.substring(index + 1)));
+        }
+    }
+
+    /**
+     * 定期从redis合并撤销列表，补上订阅断开期间错过的消息，并清理已过期的记录
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void syncRevoked() {
+        if (key == null) {
+            return;
+        }
+        long now = System.currentTimeMillis() / 1000;
+        revoked.values().removeIf(expireAt -> expireAt <= now);
+        try {
+            stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_REVOKED_KEY, Double.NEGATIVE_INFINITY, now);
+            Set<ZSetOperations.TypedTuple<String>> tuples =
+                    stringRedisTemplate.opsForZSet().rangeByScoreWithScores(LOGIN_REVOKED_KEY, now, Double.POSITIVE_INFINITY);
+            if (tuples != null) {
+                for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                    revoked.put(tuple.getValue(), tuple.getScore().longValue());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("同步token撤销列表失败", e);
+        }
+    }
+
+    private String sign(byte[] jti, long expireAt, UserDTO user) {
+        byte[] userBytes = encode(user);
+        ByteBuffer payload = ByteBuffer.allocate(1 + JTI_BYTES + 8 + userBytes.length);
+        payload.put(VERSION).put(jti).putLong(expireAt).put(userBytes);
+        byte[] bytes = payload.array();
+        return ENCODER.encodeToString(bytes) + SIGNATURE_SEPARATOR + ENCODER.encodeToString(macs.get().doFinal(bytes));
+    }
+
+    private UserDTO verify(String token) {
+        ByteBuffer payload = verifiedPayload(token);
+        if (payload == null) {
+            return null;
+        }
+        // 1. 校验有效期
+        payload.get();
+        String jti = readJti(payload);
+        if (payload.getLong() <= System.currentTimeMillis() / 1000) {
+            return null;
+        }
+        // 2. 校验是否已注销
+        if (revoked.containsKey(jti)) {
+            return null;
+        }
+        return decode(payload);
+    }
+
+    /**
+     * 校验签名，通过时返回载荷
+     */
+    private ByteBuffer verifiedPayload(String token) {
+        if (macs == null) {
+            return null;
+        }
+        int index = token.indexOf(SIGNATURE_SEPARATOR);
+        try {
+            byte[] payload = DECODER.decode(token.substring(0, index));
+            byte[] signature = DECODER.decode(token.substring(index + 1));
+            if (!MessageDigest.isEqual(macs.get().doFinal(payload), signature)
+                    || payload.length < 1 + JTI_BYTES + 8 || payload[0] != VERSION) {
+                return null;
+            }
+            return ByteBuffer.wrap(payload);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String readJti(ByteBuffer payload) {
+        byte[] jti = new byte[JTI_BYTES];
+        payload.get(jti);
+        return ENCODER.encodeToString(jti);
+    }
+
+    /**
+     * 会话的二进制格式：用户id（8字节）+ 昵称长度（2字节）+ 昵称 + 头像长度（2字节）+ 头像，长度为-1表示null
+     */
+    private static byte[] encode(UserDTO user) {
+        byte[] nickName = user.getNickName() == null ? null : user.getNickName().getBytes(StandardCharsets.UTF_8);
+        byte[] icon = user.getIcon() == null ? null : user.getIcon().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 2 + length(nickName) + 2 + length(icon));
+        buffer.putLong(user.getId());
+        putBytes(buffer, nickName);
+        putBytes(buffer, icon);
+        return buffer.array();
+    }
+
+    private static UserDTO decode(ByteBuffer buffer) {
+        try {
+            UserDTO user = new UserDTO();
+            user.setId(buffer.getLong());
+            user.setNickName(getString(buffer));
+            user.setIcon(getString(buffer));
+            return user;
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
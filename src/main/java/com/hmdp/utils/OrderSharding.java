@@ -0,0 +1,84 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+
+/**
+ * 订单分表：按用户id将订单路由到 tb_voucher_order_{n}，订单id的低位记录分表号，按订单id查询时不需要遍历所有分表。
+ * 分表数为1时使用原表名。分表数只能在数据迁移后修改
+ */
+@Component
+public class OrderSharding {
+
+    public static final String TABLE = "tb_voucher_order";
+
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    private final int shards;
+
+    public OrderSharding(@Value("${hmdp.order.shards:1}") int shards) {
+        if (shards < 1 || shards > RedisWorker.MAX_SHARDS) {
+            throw new IllegalArgumentException("订单分表数必须在1到" + RedisWorker.MAX_SHARDS + "之间");
+        }
+        this.shards = shards;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * 用户订单所在的分表
+     */
+    public int shardOfUser(Long userId) {
+        return (int) (userId % shards);
+    }
+
+    /**
+     * 订单所在的分表，从订单id中解析；订单id由客户端传入，分表号超出范围时返回-1，由调用方按订单不存在处理。
+     * 分表数为1时所有订单都在原表中
+     */
+    public int shardOfOrder(Long orderId) {
+        if (shards == 1) {
+            return 0;
+        }
+        int shard = RedisWorker.shardOf(orderId);
+        return shard < shards ? shard : -1;
+    }
+
+    /**
+     * 在指定分表上执行，期间对订单表的操作都路由到该分表
+     */
+    public <T> T on(int shard, Supplier<T> action) {
+        if (shard < 0 || shard >= shards) {
+            throw new IllegalArgumentException("订单分表不存在：" + shard);
+        }
+        Integer previous = CURRENT.get();
+        CURRENT.set(shard);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * 动态表名：未指定分表时拒绝执行，防止误操作原表或遗漏分表
+     */
+    public String tableName(String table) {
+        if (shards == 1) {
+            return table;
+        }
+        Integer shard = CURRENT.get();
+        if (shard == null) {
+            throw new IllegalStateException("未指定订单分表");
+        }
+        return table + "_" + shard;
+    }
+}
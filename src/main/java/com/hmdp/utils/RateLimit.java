@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 接口限流，标注在controller方法上，由RateLimitInterceptor执行；可重复标注，所有规则都通过才放行
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Repeatable(RateLimit.List.class)
+public @interface RateLimit {
+
+    /**
+     * 接口名，默认为 类名.方法名
+     */
+    String name() default "";
+
+    /**
+     * 限流维度
+     */
+    Scope scope() default Scope.GLOBAL;
+
+    /**
+     * LOCAL：本地令牌桶，按单个节点计数；CLUSTER：redis滑动窗口，整个集群共享配额
+     */
+    Mode mode() default Mode.LOCAL;
+
+    /**
+     * 每个周期允许的请求数，本地令牌桶同时作为桶容量
+     */
+    int permits();
+
+    long period() default 1;
+
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    enum Scope {
+        /** 整个接口共享配额 */
+        GLOBAL,
+        /** 每个用户单独计数，未登录时按IP计数 */
+        USER,
+        /** 每个IP单独计数 */
+        IP
+    }
+
+    enum Mode {
+        LOCAL,
+        CLUSTER
+    }
+
+    @Target(ElementType.METHOD)
+    @Retention(RetentionPolicy.RUNTIME)
+    @Documented
+    @interface List {
+        RateLimit[] value();
+    }
+}
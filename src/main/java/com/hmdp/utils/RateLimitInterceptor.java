@@ -0,0 +1,111 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.StringUtils;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.LIMIT_API_KEY;
+
+/**
+ * 按@RateLimit限流，超限时直接返回429，不占用业务线程和下游资源
+ */
+@Slf4j
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private static final String REJECT_BODY = JSONUtil.toJsonStr(Result.fail("请求过于频繁，请稍后再试！"));
+
+    private final LocalRateLimiter localRateLimiter;
+    private final SlidingWindowRateLimiter slidingWindowRateLimiter;
+    private final ClientIpResolver clientIpResolver;
+
+    public RateLimitInterceptor(LocalRateLimiter localRateLimiter, SlidingWindowRateLimiter slidingWindowRateLimiter,
+                                ClientIpResolver clientIpResolver) {
+        this.localRateLimiter = localRateLimiter;
+        this.slidingWindowRateLimiter = slidingWindowRateLimiter;
+        this.clientIpResolver = clientIpResolver;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        Method method = ((HandlerMethod) handler).getMethod();
+        RateLimit[] limits = method.getAnnotationsByType(RateLimit.class);
+        if (limits.length == 0) {
+            return true;
+        }
+
+        // 1. 先检查本地令牌桶，超限时不产生任何网络IO
+        List<RateLimitRule> clusterRules = new ArrayList<>();
+        for (RateLimit limit : limits) {
+            String key = buildKey(limit, method, request);
+            if (limit.mode() == RateLimit.Mode.CLUSTER) {
+                clusterRules.add(new RateLimitRule(key, limit.permits(), limit.period(), limit.unit()));
+                continue;
+            }
+            double permitsPerSecond = (double) limit.permits() / limit.unit().toMillis(limit.period()) * 1000;
+            if (!localRateLimiter.tryAcquire(key, limit.permits(), permitsPerSecond)) {
+                return reject(response);
+            }
+        }
+        if (clusterRules.isEmpty()) {
+            return true;
+        }
+
+        // 2. 再检查集群配额，所有规则一次lua调用完成
+        try {
+            if (!slidingWindowRateLimiter.tryAcquire(clusterRules.toArray(new RateLimitRule[0]))) {
+                return reject(response);
+            }
+        } catch (Exception e) {
+            // redis不可用时只依赖本地限流，不影响正常请求
+            log.warn("集群限流失败，放行请求，{}", request.getRequestURI(), e);
+        }
+        return true;
+    }
+
+    private String buildKey(RateLimit limit, Method method, HttpServletRequest request) {
+        String name = StringUtils.hasText(limit.name()) ? limit.name()
+                : method.getDeclaringClass().getSimpleName() + "." + method.getName();
+        StringBuilder key = new StringBuilder(LIMIT_API_KEY).append(name);
+        switch (limit.scope()) {
+            case USER:
+                UserDTO user = UserHolder.getUser();
+                if (user != null) {
+                    key.append(":user:").append(user.getId());
+                    break;
+                }
+                // 未登录时按IP计数
+            case IP:
+                key.append(":ip:").append(clientIpResolver.resolve(request));
+                break;
+            default:
+                break;
+        }
+        return key.toString();
+    }
+
+    private boolean reject(HttpServletResponse response) throws Exception {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(REJECT_BODY);
+        return false;
+    }
+}
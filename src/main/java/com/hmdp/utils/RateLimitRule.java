@@ -0,0 +1,18 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 限流规则：窗口内最多允许limit次请求
+ */
+@Data
+@AllArgsConstructor
+public class RateLimitRule {
+    private String key;
+    private int limit;
+    private long window;
+    private TimeUnit unit;
+}
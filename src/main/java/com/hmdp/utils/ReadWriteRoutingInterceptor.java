@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * 事务外的写语句路由到主库，并记录用户的写入，使其随后的查询也走主库
+ */
+@Intercepts(@Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}))
+public class ReadWriteRoutingInterceptor implements Interceptor {
+
+    private final RoutingDataSource routingDataSource;
+
+    public ReadWriteRoutingInterceptor(RoutingDataSource routingDataSource) {
+        this.routingDataSource = routingDataSource;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        // 1. 事务内的语句本来就走主库，提交后再开始计时，避免提交前的查询读到旧数据
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    routingDataSource.markWritten();
+                }
+            });
+            return invocation.proceed();
+        }
+        // 2. 事务外的写语句
+        Object result = RoutingDataSource.writing(invocation::proceed);
+        routingDataSource.markWritten();
+        return result;
+    }
+}
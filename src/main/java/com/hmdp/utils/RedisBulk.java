@@ -0,0 +1,136 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.LettuceFutures;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.support.ConnectionPoolSupport;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 独立于StringRedisTemplate的lettuce连接池，用于批量写入（计数器刷回、秒杀预热等）：
+ * 关闭自动flush，所有命令写入缓冲区后一次发送，不占用普通请求共享的连接。
+ * 连接池通过JMX暴露使用中、空闲、等待数等指标（org.apache.commons.pool2:type=GenericObjectPool,name=redis-bulk）
+ */
+@Slf4j
+@Component
+public class RedisBulk {
+
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+
+    private final RedisClient client;
+    private final GenericObjectPool<StatefulRedisConnection<String, String>> bulkPool;
+    private final Duration timeout;
+
+    public RedisBulk(RedisProperties properties,
+                     @Value("${hmdp.redis.bulk-pool-size:4}") int bulkPoolSize) {
+        this.timeout = properties.getTimeout() == null ? DEFAULT_TIMEOUT : properties.getTimeout();
+        RedisURI.Builder uri = RedisURI.builder()
+                .withHost(properties.getHost())
+                .withPort(properties.getPort())
+                .withDatabase(properties.getDatabase())
+                .withTimeout(timeout);
+        if (StringUtils.hasText(properties.getPassword())) {
+            uri.withPassword(properties.getPassword().toCharArray());
+        }
+        this.client = RedisClient.create(uri.build());
+        this.bulkPool = createPool("redis-bulk", bulkPoolSize);
+    }
+
+    private GenericObjectPool<StatefulRedisConnection<String, String>> createPool(String name, int size) {
+        GenericObjectPoolConfig<StatefulRedisConnection<String, String>> config = new GenericObjectPoolConfig<>();
+        config.setMaxTotal(size);
+        config.setMaxIdle(size);
+        config.setMinIdle(0);
+        config.setMaxWaitMillis(timeout.toMillis());
+        config.setTestOnBorrow(false);
+        // 通过JMX暴露连接池指标
+        config.setJmxEnabled(true);
+        config.setJmxNamePrefix(name);
+        return ConnectionPoolSupport.createGenericObjectPool(() -> client.connect(StringCodec.UTF8), config);
+    }
+
+    /**
+     * 批量执行命令：关闭自动flush，命令全部写入缓冲区后一次发送，再等待所有结果。
+     * 单次提交的命令数量由调用方控制，过大的批次会占用较多内存
+     * @param commands 发送命令，返回需要等待的结果
+     * @return 按顺序返回每条命令的结果
+     */
+    public List<Object> pipeline(Function<RedisAsyncCommands<String, String>, List<? extends RedisFuture<?>>> commands) {
+        try (StatefulRedisConnection<String, String> connection = borrow(bulkPool)) {
+            connection.setAutoFlushCommands(false);
+            try {
+                List<? extends RedisFuture<?>> futures = commands.apply(connection.async());
+                connection.flushCommands();
+                if (!LettuceFutures.awaitAll(timeout.toMillis(), TimeUnit.MILLISECONDS, futures.toArray(new RedisFuture<?>[0]))) {
+                    throw new RedisSystemException("批量命令执行超时", null);
+                }
+                List<Object> results = new ArrayList<>(futures.size());
+                for (RedisFuture<?> future : futures) {
+                    results.add(future.get());
+                }
+                return results;
+            } finally {
+                connection.setAutoFlushCommands(true);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RedisSystemException("批量命令执行被中断", e);
+        } catch (ExecutionException e) {
+            throw new RedisSystemException("批量命令执行失败", e.getCause());
+        }
+    }
+
+    private StatefulRedisConnection<String, String> borrow(GenericObjectPool<StatefulRedisConnection<String, String>> pool) {
+        try {
+            return pool.borrowObject();
+        } catch (Exception e) {
+            throw new RedisSystemException("获取redis连接失败，连接池已满或redis不可用", e);
+        }
+    }
+
+    /**
+     * 定期检查连接池，有线程在等待连接时说明连接池已经饱和，输出告警
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void logPoolStats() {
+        logPoolStats("bulk", bulkPool);
+    }
+
+    private void logPoolStats(String name, GenericObjectPool<?> pool) {
+        int waiters = pool.getNumWaiters();
+        String message = "redis连接池[{}]，使用中：{}，空闲：{}，最大：{}，等待：{}，平均等待：{}ms，最长等待：{}ms";
+        Object[] args = {name, pool.getNumActive(), pool.getNumIdle(), pool.getMaxTotal(), waiters,
+                pool.getMeanBorrowWaitTimeMillis(), pool.getMaxBorrowWaitTimeMillis()};
+        if (waiters > 0 || pool.getNumActive() >= pool.getMaxTotal()) {
+            log.warn(message, args);
+        } else {
+            log.debug(message, args);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        bulkPool.close();
+        client.shutdown();
+    }
+}
@@ -5,19 +5,65 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 30L;
+    public static final Long LOGIN_USER_REFRESH_MINUTES = 1L;
+    public static final String LOGIN_REVOKED_KEY = "login:revoked";
+    public static final String LOGIN_REVOKED_CHANNEL = "channel:login:revoked";
+    public static final String LIMIT_SMS_PHONE_KEY = "limit:sms:phone:";
+    public static final String LIMIT_SMS_IP_KEY = "limit:sms:ip:";
+    public static final String LIMIT_LOGIN_PHONE_KEY = "limit:login:phone:";
+    public static final String LIMIT_LOGIN_IP_KEY = "limit:login:ip:";
+    public static final String LIMIT_API_KEY = "limit:api:";
 
     public static final Long CACHE_NULL_TTL = 2L;
+    public static final Long CACHE_DELAY_DELETE_MILLIS = 500L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shop:type";
 
+    public static final Long CACHE_VOUCHER_LIST_TTL = 30L;
+    public static final String CACHE_VOUCHER_LIST_KEY = "cache:voucher:list:";
+
+    public static final Long CACHE_USER_INFO_TTL = 30L;
+    public static final String CACHE_USER_INFO_KEY = "cache:user:info:";
+
+    /**
+     * 响应缓存，key为 前缀 + 数据缓存的key，随数据缓存一起失效
+     */
+    public static final String CACHE_RESP_KEY = "cache:resp:";
+    public static final Long CACHE_RESP_TTL = 10L;
+    public static final Long CACHE_RESP_STOCK_TTL = 1L;
+
+    public static final String USER_COUNTER_KEY = "user:counter:";
+    public static final String USER_COUNTER_DIRTY_KEY = "user:counter:dirty";
+    public static final String FOLLOWS_KEY = "follows:";
+
+    public static final String CACHE_ORDER_KEY = "cache:order:user:";
+    public static final String CACHE_ORDER_DIRTY_KEY = "cache:order:dirty:";
+    public static final Long CACHE_ORDER_TTL = 30L;
+    public static final Long CACHE_ORDER_DIRTY_TTL = 3L;
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_KEY = "lock:";
+    public static final String LOCK_CHANNEL_KEY = "channel:";
+    public static final Long LOCK_WATCHDOG_TTL = 30L;
+    public static final String LOCK_ORDER_KEY = "order:";
+    public static final String LOCK_SECKILL_RECONCILE_KEY = "seckill:reconcile";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_STOCK_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "channel:seckill:sold-out";
+    public static final String ORDER_CANCEL_QUEUE_KEY = "order:delay:cancel";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_COMMENTS_KEY = "blog:comments:";
+    public static final String BLOG_COMMENTS_HOT_KEY = "blog:comments:hot:";
+    public static final String BLOG_COMMENTS_DIRTY_KEY = "blog:comments:dirty:";
+    public static final Long BLOG_COMMENTS_TTL = 30L;
+    public static final Long BLOG_COMMENTS_DIRTY_TTL = 3L;
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final String UPLOAD_REF_KEY = "upload:ref";
+    public static final String UPLOAD_USER_REF_KEY = "upload:ref:user:";
 }
@@ -0,0 +1,151 @@
+package com.hmdp.utils;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 基于redis zset的延迟队列，score为到期时间。
+ * 任务由本地时间轮在到期时触发领取，定时扫描作为兜底（其他节点添加的任务、重启前未处理的任务）。
+ * 领取的任务移入处理中集合，处理成功后确认删除，处理失败或节点宕机时超时后被重新领取，
+ * 因此同一任务可能被处理多次，处理逻辑需要幂等
+ */
+@Slf4j
+public class RedisDelayQueue {
+
+    /**
+     * 脚本返回字符串列表，List.class无法直接表示泛型，转换一次
+     */
+    @SuppressWarnings("unchecked")
+    private static final Class<List<String>> STRING_LIST = (Class<List<String>>) (Class<?>) List.class;
+
+    private static final DefaultRedisScript<List<String>> CLAIM_SCRIPT;
+    static {
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("lua/delay_queue_claim.lua"));
+        CLAIM_SCRIPT.setResultType(STRING_LIST);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final String queueKey;
+    private final String processingKey;
+    private final int batchSize;
+    private final long processingTimeoutMillis;
+    private final Consumer<List<String>> handler;
+
+    private final Timer timer;
+    private final ExecutorService pollExecutor;
+    private final AtomicBoolean pollScheduled = new AtomicBoolean();
+
+    /**
+     * @param handler 批量处理到期的任务，抛出异常时本批任务在处理超时后重新领取
+     */
+    public RedisDelayQueue(StringRedisTemplate stringRedisTemplate, String queueKey, int batchSize,
+                           long processingTimeoutMillis, Consumer<List<String>> handler) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.queueKey = queueKey;
+        this.processingKey = queueKey + ":processing";
+        this.batchSize = batchSize;
+        this.processingTimeoutMillis = processingTimeoutMillis;
+        this.handler = handler;
+        this.timer = new HashedWheelTimer(r -> daemon(r, "delay-queue-timer"), 100, TimeUnit.MILLISECONDS, 512);
+        // 只需要一个线程，同时最多一个待执行的领取任务
+        this.pollExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(1), r -> daemon(r, "delay-queue-poll"));
+    }
+
+    /**
+     * 添加延迟任务，到期时由当前节点的时间轮触发领取
+     */
+    public void add(String item, long delay, TimeUnit unit) {
+        long delayMillis = unit.toMillis(delay);
+        stringRedisTemplate.opsForZSet().add(queueKey, item, System.currentTimeMillis() + delayMillis);
+        timer.newTimeout(t -> schedulePoll(), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 移除延迟任务，例如订单已支付
+     */
+    public void remove(String item) {
+        stringRedisTemplate.opsForZSet().remove(queueKey, item);
+    }
+
+    /**
+     * 异步领取并处理所有到期的任务，同一时刻的多次触发合并为一次
+     */
+    public void schedulePoll() {
+        if (!pollScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            pollExecutor.execute(() -> {
+                pollScheduled.set(false);
+                poll();
+            });
+        } catch (RuntimeException e) {
+            pollScheduled.set(false);
+            log.warn("延迟队列领取任务提交失败，{}", queueKey, e);
+        }
+    }
+
+    /**
+     * 分批领取并处理所有到期的任务
+     * @return 处理的任务数量
+     */
+    public int poll() {
+        int total = 0;
+        while (true) {
+            List<String> items;
+            try {
+                long now = System.currentTimeMillis();
+                items = claim(now, now + processingTimeoutMillis);
+            } catch (Exception e) {
+                log.warn("延迟队列领取任务失败，{}", queueKey, e);
+                return total;
+            }
+            if (items == null || items.isEmpty()) {
+                return total;
+            }
+            try {
+                handler.accept(items);
+                stringRedisTemplate.opsForZSet().remove(processingKey, items.toArray());
+                total += items.size();
+            } catch (Exception e) {
+                // 不确认，处理超时后重新领取
+                log.error("延迟队列任务处理失败，{}，数量：{}", queueKey, items.size(), e);
+                return total;
+            }
+            if (items.size() < batchSize) {
+                return total;
+            }
+        }
+    }
+
+    private List<String> claim(long now, long deadline) {
+        return stringRedisTemplate.execute(CLAIM_SCRIPT, Arrays.asList(queueKey, processingKey),
+                String.valueOf(now), String.valueOf(batchSize), String.valueOf(deadline));
+    }
+
+    public void shutdown() {
+        timer.stop();
+        pollExecutor.shutdown();
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+}
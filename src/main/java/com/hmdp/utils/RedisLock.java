@@ -0,0 +1,80 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于redis hash的可重入锁，field为持有者标识，value为重入次数
+ */
+class RedisLock implements ILock {
+
+    private final RedisLockClient client;
+    private final String key;
+    private final String owner;
+    private long leaseMillis;
+
+    RedisLock(RedisLockClient client, String key, String owner) {
+        this.client = client;
+        this.key = key;
+        this.owner = owner;
+        this.leaseMillis = client.getWatchdogMillis();
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) {
+        boolean watchdog = leaseTime == -1;
+        long lease = watchdog ? client.getWatchdogMillis() : unit.toMillis(leaseTime);
+        long deadline = System.currentTimeMillis() + unit.toMillis(waitTime);
+
+        // 1. 直接尝试获取
+        Long ttl = client.acquire(key, owner, lease);
+        if (ttl == null) {
+            return locked(watchdog, lease);
+        }
+        if (waitTime <= 0) {
+            return false;
+        }
+
+        // 2. 订阅解锁通知，收到通知或锁过期时再次尝试，不轮询redis
+        RedisLockClient.Waiter waiter = client.subscribe(key);
+        try {
+            while (true) {
+                // 订阅之后先尝试一次，避免错过订阅之前发出的通知；尝试之前记录版本号，尝试失败后只等待之后的通知
+                long seen = waiter.version();
+                ttl = client.acquire(key, owner, lease);
+                if (ttl == null) {
+                    return locked(watchdog, lease);
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                waiter.await(seen, ttl > 0 ? Math.min(ttl, remaining) : remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            client.unsubscribe(key, waiter);
+        }
+    }
+
+    private boolean locked(boolean watchdog, long lease) {
+        leaseMillis = lease;
+        if (watchdog) {
+            client.scheduleRenewal(key, owner);
+        }
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        Long result = client.release(key, owner, leaseMillis);
+        if (result == null) {
+            client.cancelRenewal(key, owner);
+            throw new IllegalMonitorStateException("锁已过期或不属于当前持有者，key：" + key);
+        }
+        if (result == 1L) {
+            client.cancelRenewal(key, owner);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 分布式锁客户端：可重入、看门狗续期、通过pub/sub等待解锁通知、lua校验持有者后释放
+ */
+@Slf4j
+@Component
+public class RedisLockClient implements MessageListener {
+
+    private static final DefaultRedisScript<Long> LOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    static {
+        LOCK_SCRIPT = new DefaultRedisScript<>();
+        LOCK_SCRIPT.setLocation(new ClassPathResource("lua/lock.lua"));
+        LOCK_SCRIPT.setResultType(Long.class);
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("lua/unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("lua/lock_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 当前节点的标识，与线程id组成锁的持有者标识
+     */
+    private final String clientId = UUID.fastUUID().toString(true);
+
+    private final long watchdogMillis = TimeUnit.SECONDS.toMillis(LOCK_WATCHDOG_TTL);
+
+    /**
+     * 看门狗续期任务，key为锁的key
+     */
+    private final Map<String, Renewal> renewals = new ConcurrentHashMap<>();
+
+    /**
+     * 等待解锁通知的线程，key为锁的key
+     */
+    private final Map<String, Waiter> waiters = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lock-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RedisLockClient(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        listenerContainer.addMessageListener(this, new PatternTopic(LOCK_CHANNEL_KEY + LOCK_KEY + "*"));
+    }
+
+    /**
+     * 获取锁对象，持有者为调用本方法的线程；同一线程再次获取同名的锁即为重入
+     * @param name 锁的名称，redis中的key为 lock:{name}
+     */
+    public ILock getLock(String name) {
+        return new RedisLock(this, LOCK_KEY + name, clientId + ":" + Thread.currentThread().getId());
+    }
+
+    /**
+     * 获取不可重入的锁对象，持有者为这个锁对象本身，用于加锁后交给其他线程执行并释放的场景，例如异步重建缓存。
+     * 线程池中的线程会被复用，按线程标识持有者时，同一线程再次获取会因重入而成功，失去互斥效果
+     * @param name 锁的名称，redis中的key为 lock:{name}
+     */
+    public ILock getHandoffLock(String name) {
+        return new RedisLock(this, LOCK_KEY + name, clientId + ":" + UUID.fastUUID().toString(true));
+    }
+
+    long getWatchdogMillis() {
+        return watchdogMillis;
+    }
+
+    Long acquire(String key, String owner, long leaseMillis) {
+        return stringRedisTemplate.execute(LOCK_SCRIPT, Collections.singletonList(key), owner, String.valueOf(leaseMillis));
+    }
+
+    Long release(String key, String owner, long leaseMillis) {
+        return stringRedisTemplate.execute(UNLOCK_SCRIPT, Arrays.asList(key, LOCK_CHANNEL_KEY + key),
+                owner, String.valueOf(leaseMillis));
+    }
+
+    void scheduleRenewal(String key, String owner) {
+        renewals.compute(key, (k, renewal) -> {
+            if (renewal != null && renewal.owner.equals(owner)) {
+                // 重入，已经在续期
+                return renewal;
+            }
+            if (renewal != null) {
+                renewal.future.cancel(false);
+            }
+            long period = watchdogMillis / 3;
+            ScheduledFuture<?> future = watchdog.scheduleAtFixedRate(() -> renew(key, owner), period, period, TimeUnit.MILLISECONDS);
+            return new Renewal(owner, future);
+        });
+    }
+
+    void cancelRenewal(String key, String owner) {
+        renewals.computeIfPresent(key, (k, renewal) -> {
+            if (!renewal.owner.equals(owner)) {
+                return renewal;
+            }
+            renewal.future.cancel(false);
+            return null;
+        });
+    }
+
+    private void renew(String key, String owner) {
+        try {
+            Long result = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(key),
+                    owner, String.valueOf(watchdogMillis));
+            if (result == null || result == 0L) {
+                // 锁已经不属于当前持有者，停止续期
+                cancelRenewal(key, owner);
+            }
+        } catch (Exception e) {
+            // 下一个周期重试，锁在过期时间内仍然有效
+            log.warn("锁续期失败，key：{}", key, e);
+        }
+    }
+
+    Waiter subscribe(String key) {
+        return waiters.compute(key, (k, waiter) -> {
+            if (waiter == null) {
+                waiter = new Waiter();
+            }
+            waiter.count.incrementAndGet();
+            return waiter;
+        });
+    }
+
+    void unsubscribe(String key, Waiter waiter) {
+        waiters.computeIfPresent(key, (k, w) -> w == waiter && w.count.decrementAndGet() == 0 ? null : w);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        Waiter waiter = waiters.get(channel.substring(LOCK_CHANNEL_KEY.length()));
+        if (waiter != null) {
+            // 唤醒所有等待者重新竞争
+            waiter.signalAll();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+    }
+
+    private static class Renewal {
+        private final String owner;
+        private final ScheduledFuture<?> future;
+
+        private Renewal(String owner, ScheduledFuture<?> future) {
+            this.owner = owner;
+            this.future = future;
+        }
+    }
+
+    /**
+     * 解锁通知的等待点：每次通知版本号+1，等待者只在看到新的版本号或超时后返回。
+     * 不累积信号，之前的通知不会让之后的等待立即返回
+     */
+    static class Waiter {
+        private final AtomicInteger count = new AtomicInteger();
+        private long version;
+
+        /**
+         * 当前版本号，在尝试获取锁之前读取，获取失败后以此等待之后的通知
+         */
+        synchronized long version() {
+            return version;
+        }
+
+        synchronized void signalAll() {
+            version++;
+            notifyAll();
+        }
+
+        synchronized void await(long seen, long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long remaining = timeoutMillis;
+            while (version == seen && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+    }
+}
@@ -14,6 +14,15 @@ public class RedisWorker {
     private static final long BEGIN_TIMESTAMP = 1640995200L;
     private StringRedisTemplate stringRedisTemplate;
     private static final long COUNT_BITS = 32;
+    /**
+     * 分片号占用序列号的低位
+     */
+    private static final long SHARD_BITS = 8;
+    public static final int MAX_SHARDS = 1 << SHARD_BITS;
+    /**
+     * 带分片号的id中，每个分片每天可用的最大序列号
+     */
+    private static final long MAX_SHARD_COUNT = (1L << (COUNT_BITS - SHARD_BITS)) - 1;
 
     public RedisWorker(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
@@ -36,5 +45,41 @@ public class RedisWorker {
 
     }
 
+    /**
+     * 生成带分片号的id，每个分片单独计数，每天每个分片最多2^24个id
+     */
+    public long nextId(String keyPrefix, int shard) {
+        // 1. 生成时间戳
+        LocalDateTime now = LocalDateTime.now();
+        long timestamp = now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+
+        // 2. 按分片自增长
+        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date + ":" + shard);
+
+        // 3. 拼接并返回，分片号放在最低位
+        return compose(timestamp, count, shard);
+    }
+
+    /**
+     * 拼接带分片号的id，序列号超出可用位数时拒绝生成，避免覆盖时间戳
+     */
+    static long compose(long timestamp, long count, int shard) {
+        if (count > MAX_SHARD_COUNT) {
+            throw new IllegalStateException("分片" + shard + "当天的id已用完");
+        }
+        if (shard < 0 || shard >= MAX_SHARDS) {
+            throw new IllegalArgumentException("分片号超出范围：" + shard);
+        }
+        return timestamp << COUNT_BITS | count << SHARD_BITS | shard;
+    }
+
+    /**
+     * 从nextId(keyPrefix, shard)生成的id中解析分片号
+     */
+    public static int shardOf(long id) {
+        return (int) (id & (MAX_SHARDS - 1));
+    }
+
 
 }
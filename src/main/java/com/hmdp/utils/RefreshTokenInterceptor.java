@@ -1,25 +1,18 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
-
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
 
 public class RefreshTokenInterceptor implements HandlerInterceptor {
 
-    private StringRedisTemplate stringRedisTemplate;
+    private LoginSessions loginSessions;
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    public RefreshTokenInterceptor(LoginSessions loginSessions) {
+        this.loginSessions = loginSessions;
     }
 
     @Override
@@ -28,32 +21,25 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         // 1. 获取请求头中的token
         String token = request.getHeader("authorization");
         if (StrUtil.isBlank(token)) {
-            return false;
+            // 未登录，放行，由登录拦截器判断是否需要登录
+            return true;
         }
 
-        // 2. 基于token获取redis中的用户
-        Map<Object, Object> userMAP = stringRedisTemplate.opsForHash().entries(LOGIN_USER_KEY + token);
-
-
-//        // 3. 判断用户是否存在
-//        if (userMAP.isEmpty()) {
-//            // 4. 不存在，拦截，返回401
-//            response.setStatus(401);
-//            return false;
-//        }
+        // 2. 基于token获取用户：签名token在本地校验，否则一次lua调用读取redis中的会话并续期
+        UserDTO userDTO = loginSessions.resolve(token);
 
 
-        // 5. 存在，将查询到的hash数据转为UserDTO
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMAP, new UserDTO(), false);
+        // 3. 判断用户是否存在
+        if (userDTO == null) {
+            // 4. 不存在，放行，由登录拦截器判断是否需要登录
+            return true;
+        }
 
 
-        // 6. 存在，保存用户信息到ThreadLocal
+        // 5. 存在，保存用户信息到ThreadLocal
         UserHolder.saveUser(userDTO);
 
-        // 7. 刷新token有效期
-        stringRedisTemplate.expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
-
-        // 8. 放行
+        // 6. 放行
         return true;
 
 
@@ -0,0 +1,102 @@
+package com.hmdp.utils;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.CACHE_RESP_KEY;
+
+/**
+ * 响应缓存：缓存序列化后的Result，命中时直接输出字节，不再反序列化缓存、重新序列化响应，并支持ETag协商缓存。
+ * 响应缓存的key由数据缓存的key派生，CacheInvalidator删除数据缓存时一并删除
+ */
+@Component
+public class ResponseCache {
+
+    private static final DefaultRedisScript<Long> PUT_SCRIPT;
+    static {
+        PUT_SCRIPT = new DefaultRedisScript<>();
+        PUT_SCRIPT.setLocation(new ClassPathResource("lua/response_put.lua"));
+        PUT_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final byte[] FIELD_ETAG = "etag".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FIELD_BODY = "body".getBytes(StandardCharsets.UTF_8);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ObjectMapper objectMapper;
+
+    public ResponseCache(StringRedisTemplate stringRedisTemplate, ObjectMapper objectMapper) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 数据缓存对应的响应缓存key
+     */
+    public static String keyOf(String dataKey) {
+        return CACHE_RESP_KEY + dataKey;
+    }
+
+    /**
+     * 输出缓存的响应，未命中时执行查询并缓存序列化结果，只缓存成功的结果
+     * @param dataKey 响应所依赖的数据缓存的key
+     */
+    public ResponseEntity<byte[]> serve(HttpServletRequest request, String dataKey, Long time, TimeUnit unit, Supplier<Result> loader) {
+        // 1. 一次读取ETag和响应体，直接使用原始字节
+        byte[] rawKey = keyOf(dataKey).getBytes(StandardCharsets.UTF_8);
+        List<byte[]> cached = stringRedisTemplate.execute(
+                (RedisCallback<List<byte[]>>) connection -> connection.hMGet(rawKey, FIELD_ETAG, FIELD_BODY));
+        String etag;
+        byte[] body;
+        if (cached != null && cached.get(0) != null && cached.get(1) != null) {
+            // 2. 命中
+            etag = new String(cached.get(0), StandardCharsets.UTF_8);
+            body = cached.get(1);
+        } else {
+            // 3. 未命中，执行查询，序列化一次
+            Result result = loader.get();
+            String json;
+            try {
+                json = objectMapper.writeValueAsString(result);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+            etag = "\"" + DigestUtil.md5Hex(json) + "\"";
+            if (Boolean.TRUE.equals(result.getSuccess())) {
+                stringRedisTemplate.execute(PUT_SCRIPT, Collections.singletonList(keyOf(dataKey)),
+                        etag, json, String.valueOf(unit.toMillis(time)));
+            }
+            body = json.getBytes(StandardCharsets.UTF_8);
+        }
+
+        // 4. 客户端已有相同版本时返回304
+        if (etag.equals(request.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+}
@@ -0,0 +1,195 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.TimedCache;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 读写分离的数据源：事务内的语句和写语句走主库，事务外的查询走健康的从库。
+ * 用户写入后的一段时间内，该用户的查询也走主库，保证读到自己的写入。
+ * 写入标记只保存在本节点内存中，负载均衡没有按用户保持会话时，其他节点处理的后续请求仍可能读到从库的旧数据。
+ * 需要包装在LazyConnectionDataSourceProxy中使用，使真正获取连接时事务状态、语句类型已经确定
+ */
+@Slf4j
+public class RoutingDataSource extends AbstractRoutingDataSource {
+
+    public static final String PRIMARY = "primary";
+
+    /**
+     * 当前线程正在执行写语句
+     */
+    private static final ThreadLocal<Boolean> WRITING = new ThreadLocal<>();
+
+    private final DataSource primary;
+
+    private final List<Replica> replicas = new ArrayList<>();
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final long maxLagSeconds;
+
+    /**
+     * 最近写入过的用户，key为用户id
+     */
+    private final TimedCache<Long, Boolean> stickyUsers;
+
+    public RoutingDataSource(DataSource primary, List<DataSource> replicaDataSources, long stickySeconds, long maxLagSeconds) {
+        this.primary = primary;
+        this.maxLagSeconds = maxLagSeconds;
+        this.stickyUsers = CacheUtil.newTimedCache(TimeUnit.SECONDS.toMillis(stickySeconds));
+        this.stickyUsers.schedulePrune(TimeUnit.SECONDS.toMillis(stickySeconds));
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (int i = 0; i < replicaDataSources.size(); i++) {
+            Replica replica = new Replica("replica-" + i, replicaDataSources.get(i));
+            replicas.add(replica);
+            targets.put(replica.name, replica.dataSource);
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+    }
+
+    /**
+     * 以写语句的方式执行，期间获取的连接来自主库
+     */
+    public static <T> T writing(SqlCall<T> call) throws Throwable {
+        WRITING.set(Boolean.TRUE);
+        try {
+            return call.call();
+        } finally {
+            WRITING.remove();
+        }
+    }
+
+    /**
+     * 记录当前用户发生了写入
+     */
+    public void markWritten() {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            return;
+        }
+        stickyUsers.put(user.getId(), Boolean.TRUE);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        // 1. 写语句、事务内的语句走主库
+        if (WRITING.get() != null || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return PRIMARY;
+        }
+        // 2. 最近写入过的用户走主库
+        UserDTO user = UserHolder.getUser();
+        if (user != null && stickyUsers.containsKey(user.getId())) {
+            return PRIMARY;
+        }
+        // 3. 轮询健康的从库，没有健康的从库时走主库
+        int size = replicas.size();
+        if (size == 0) {
+            return PRIMARY;
+        }
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.healthy) {
+                return replica.name;
+            }
+        }
+        return PRIMARY;
+    }
+
+    /**
+     * 检查从库：无法连接、复制中断或延迟超过阈值的从库不再接收查询，恢复后重新加入。由DataSourceConfig定期调用
+     */
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            boolean healthy;
+            String reason = null;
+            try (Connection connection = replica.dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.setQueryTimeout(2);
+                Long lag = queryLag(statement);
+                healthy = lag == null || (lag >= 0 && lag <= maxLagSeconds);
+                if (!healthy) {
+                    reason = lag < 0 ? "复制已中断" : "复制延迟" + lag + "s";
+                }
+            } catch (SQLException e) {
+                healthy = false;
+                reason = e.getMessage();
+            }
+            if (healthy != replica.healthy) {
+                if (healthy) {
+                    log.info("从库{}已恢复", replica.name);
+                } else {
+                    log.warn("从库{}不可用，查询改走其他库，原因：{}", replica.name, reason);
+                }
+                replica.healthy = healthy;
+            }
+        }
+    }
+
+    /**
+     * 查询复制延迟，复制中断时返回-1，不是从库或没有权限时返回null
+     */
+    private Long queryLag(Statement statement) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("SHOW SLAVE STATUS")) {
+            if (!rs.next()) {
+                return null;
+            }
+            long lag = rs.getLong("Seconds_Behind_Master");
+            return rs.wasNull() ? -1L : lag;
+        } catch (SQLException e) {
+            // 没有REPLICATION CLIENT权限时只检查连通性
+            statement.execute("SELECT 1");
+            return null;
+        }
+    }
+
+    public void close() {
+        stickyUsers.cancelPruneSchedule();
+        close(PRIMARY, primary);
+        for (Replica replica : replicas) {
+            close(replica.name, replica.dataSource);
+        }
+    }
+
+    private void close(String name, DataSource dataSource) {
+        if (dataSource instanceof Closeable) {
+            try {
+                ((Closeable) dataSource).close();
+            } catch (IOException e) {
+                log.warn("关闭连接池失败，{}", name, e);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface SqlCall<T> {
+        T call() throws Throwable;
+    }
+
+    private static class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        private volatile boolean healthy = true;
+
+        private Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 本地的秒杀券售罄标记，售罄后的请求不再访问redis。
+ * 标记和清除通过redis pub/sub广播到所有节点；标记有较短的有效期，
+ * 并发的标记、清除消息乱序时，最多在有效期内误判为售罄
+ */
+@Component
+public class SeckillSoldOutFlags implements MessageListener {
+
+    private static final String MARK = "1:";
+    private static final String CLEAR = "0:";
+
+    private static final long FLAG_TTL_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * key为券id，value为标记的过期时间
+     */
+    private final Map<Long, Long> flags = new ConcurrentHashMap<>();
+
+    public SeckillSoldOutFlags(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        listenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long expireAt = flags.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (System.nanoTime() - expireAt < 0) {
+            return true;
+        }
+        flags.remove(voucherId, expireAt);
+        return false;
+    }
+
+    /**
+     * 标记售罄，本节点首次标记时广播给其他节点
+     */
+    public void markSoldOut(Long voucherId) {
+        if (flags.put(voucherId, System.nanoTime() + FLAG_TTL_NANOS) == null) {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, MARK + voucherId);
+        }
+    }
+
+    /**
+     * 补充库存后清除标记，并广播给其他节点
+     */
+    public void clear(Long voucherId) {
+        flags.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, CLEAR + voucherId);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        Long voucherId = Long.valueOf(body.substring(2));
+        if (body.startsWith(MARK)) {
+            flags.put(voucherId, System.nanoTime() + FLAG_TTL_NANOS);
+        } else {
+            flags.remove(voucherId);
+        }
+    }
+}
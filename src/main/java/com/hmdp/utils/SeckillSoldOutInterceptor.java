@@ -0,0 +1,47 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.NumberUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 秒杀售罄拦截器，在限流拦截器之前执行：本地已标记售罄的券直接返回，不消耗集群限流配额，也不访问redis
+ */
+public class SeckillSoldOutInterceptor implements HandlerInterceptor {
+
+    private static final String SOLD_OUT_BODY = JSONUtil.toJsonStr(Result.fail("库存不足！"));
+
+    private final SeckillStockClient seckillStockClient;
+
+    public SeckillSoldOutInterceptor(SeckillStockClient seckillStockClient) {
+        this.seckillStockClient = seckillStockClient;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1. 从路径中取出券id
+        Map<String, String> variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String id = variables == null ? null : variables.get("id");
+        if (id == null || !NumberUtil.isLong(id)) {
+            return true;
+        }
+        // 2. 未标记售罄，放行
+        if (!seckillStockClient.isSoldOut(Long.valueOf(id))) {
+            return true;
+        }
+        // 3. 已售罄，直接返回
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(SOLD_OUT_BODY);
+        return false;
+    }
+}
@@ -0,0 +1,257 @@
+package com.hmdp.utils;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_SHARDS_KEY;
+
+/**
+ * 秒杀库存。超热门的券可以把库存拆分到多个key（seckill:stock:{id}:{k}），分散到redis集群的不同slot，
+ * 按用户id路由到其中一个分片扣减，分片库存不足时依次尝试其他分片，每次扣减都是单key原子操作，总库存精确。
+ * 未分片的券仍使用 seckill:stock:{id}
+ */
+@Component
+public class SeckillStockClient {
+
+    public static final long DEDUCTED = 0L;
+    public static final long SOLD_OUT = 1L;
+    public static final long NOT_LOADED = 2L;
+
+    private static final DefaultRedisScript<Long> DEDUCT_SCRIPT;
+    private static final DefaultRedisScript<Long> RETURN_SCRIPT;
+    private static final DefaultRedisScript<Long> ADJUST_SCRIPT;
+    static {
+        DEDUCT_SCRIPT = new DefaultRedisScript<>();
+        DEDUCT_SCRIPT.setLocation(new ClassPathResource("lua/seckill_stock.lua"));
+        DEDUCT_SCRIPT.setResultType(Long.class);
+        RETURN_SCRIPT = new DefaultRedisScript<>();
+        RETURN_SCRIPT.setLocation(new ClassPathResource("lua/seckill_stock_return.lua"));
+        RETURN_SCRIPT.setResultType(Long.class);
+        ADJUST_SCRIPT = new DefaultRedisScript<>();
+        ADJUST_SCRIPT.setLocation(new ClassPathResource("lua/seckill_stock_adjust.lua"));
+        ADJUST_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillSoldOutFlags soldOutFlags;
+
+    /**
+     * 券的分片数，创建后不再变化，本地缓存
+     */
+    private final Map<Long, Integer> shardCounts = new ConcurrentHashMap<>();
+
+    public SeckillStockClient(StringRedisTemplate stringRedisTemplate, SeckillSoldOutFlags soldOutFlags) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.soldOutFlags = soldOutFlags;
+    }
+
+    /**
+     * 把库存加载到redis，平均分配到各个分片，余数分配给前面的分片
+     */
+    public void load(Long voucherId, int stock, int shards) {
+        int n = Math.max(1, shards);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int k = 0; k < n; k++) {
+                int part = stock / n + (k < stock % n ? 1 : 0);
+                conn.set(shardKey(voucherId, k, n), String.valueOf(part));
+            }
+            conn.set(SECKILL_STOCK_SHARDS_KEY + voucherId, String.valueOf(n));
+            return null;
+        });
+        shardCounts.put(voucherId, n);
+        soldOutFlags.clear(voucherId);
+    }
+
+    /**
+     * redis中还没有库存时从数据库加载，已加载的（包括创建券时加载的分片库存）不覆盖
+     * @return 是否加载
+     */
+    public boolean loadIfAbsent(Long voucherId, int stock) {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_STOCK_SHARDS_KEY + voucherId))) {
+            return false;
+        }
+        load(voucherId, stock, 1);
+        return true;
+    }
+
+    /**
+     * 删除redis中的库存，多个节点同时调用时只有一个节点执行删除
+     * @return 删除前redis中的总库存，已被其他节点删除时返回null
+     */
+    public Integer unload(Long voucherId) {
+        int n = shardsOf(voucherId);
+        Integer stock = getStocks(Collections.singletonList(voucherId)).get(voucherId);
+        shardCounts.remove(voucherId);
+        if (!Boolean.TRUE.equals(stringRedisTemplate.delete(SECKILL_STOCK_SHARDS_KEY + voucherId))) {
+            return null;
+        }
+        List<String> keys = new ArrayList<>(n);
+        for (int k = 0; k < n; k++) {
+            keys.add(shardKey(voucherId, k, n));
+        }
+        stringRedisTemplate.delete(keys);
+        return stock;
+    }
+
+    /**
+     * 把redis中的总库存修正delta，修正到库存最多的分片上；该分片在读取之后被修改时放弃修正
+     * @return 是否修正成功
+     */
+    public boolean adjust(Long voucherId, int delta) {
+        int n = shardsOf(voucherId);
+        List<String> keys = new ArrayList<>(n);
+        for (int k = 0; k < n; k++) {
+            keys.add(shardKey(voucherId, k, n));
+        }
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        if (values == null) {
+            return false;
+        }
+        int target = -1;
+        for (int k = 0; k < n; k++) {
+            String value = values.get(k);
+            if (value != null && (target < 0 || Integer.parseInt(value) > Integer.parseInt(values.get(target)))) {
+                target = k;
+            }
+        }
+        if (target < 0 || Integer.parseInt(values.get(target)) + delta < 0) {
+            return false;
+        }
+        Long result = stringRedisTemplate.execute(ADJUST_SCRIPT, Collections.singletonList(keys.get(target)),
+                values.get(target), String.valueOf(delta));
+        if (result == null || result == 0L) {
+            return false;
+        }
+        if (delta > 0) {
+            soldOutFlags.clear(voucherId);
+        }
+        return true;
+    }
+
+    /**
+     * 是否已售罄，只查询本地标记
+     */
+    public boolean isSoldOut(Long voucherId) {
+        return soldOutFlags.isSoldOut(voucherId);
+    }
+
+    /**
+     * 扣减一个库存：先扣用户路由到的分片，不足时依次尝试其他分片，全部不足时标记售罄
+     * @return DEDUCTED、SOLD_OUT 或 NOT_LOADED
+     */
+    public long tryDeduct(Long voucherId, Long userId) {
+        int n = shardsOf(voucherId);
+        int start = route(userId, n);
+        boolean loaded = false;
+        for (int i = 0; i < n; i++) {
+            int k = (start + i) % n;
+            Long result = stringRedisTemplate.execute(DEDUCT_SCRIPT, Collections.singletonList(shardKey(voucherId, k, n)));
+            if (result == null) {
+                continue;
+            }
+            if (result == DEDUCTED) {
+                return DEDUCTED;
+            }
+            loaded |= result == SOLD_OUT;
+        }
+        if (!loaded) {
+            return NOT_LOADED;
+        }
+        soldOutFlags.markSoldOut(voucherId);
+        return SOLD_OUT;
+    }
+
+    /**
+     * 批量归还库存并清除售罄标记，只归还已加载到redis的库存。
+     * 每个用户归还到其路由的分片即可，总库存不受影响；分片可能位于不同的slot，每个key单独执行，在一个pipeline中发送
+     * @param userIdsByVoucher key为券id，value为归还库存的用户id，每个用户归还一个
+     */
+    public void returnStock(Map<Long, List<Long>> userIdsByVoucher) {
+        Map<String, Integer> counts = new HashMap<>();
+        userIdsByVoucher.forEach((voucherId, userIds) -> {
+            int n = shardsOf(voucherId);
+            for (Long userId : userIds) {
+                counts.merge(shardKey(voucherId, route(userId, n), n), 1, Integer::sum);
+            }
+        });
+        if (counts.isEmpty()) {
+            return;
+        }
+        String script = RETURN_SCRIPT.getScriptAsString();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            counts.forEach((key, count) -> conn.eval(script, ReturnType.INTEGER, 1, key, count.toString()));
+            return null;
+        });
+        userIdsByVoucher.keySet().forEach(soldOutFlags::clear);
+    }
+
+    /**
+     * 批量查询redis中的总库存，未加载的券不在结果中
+     */
+    public Map<Long, Integer> getStocks(List<Long> voucherIds) {
+        List<String> keys = new ArrayList<>();
+        List<Integer> owners = new ArrayList<>();
+        for (int i = 0; i < voucherIds.size(); i++) {
+            Long voucherId = voucherIds.get(i);
+            int n = shardsOf(voucherId);
+            for (int k = 0; k < n; k++) {
+                keys.add(shardKey(voucherId, k, n));
+                owners.add(i);
+            }
+        }
+        List<String> values = keys.isEmpty() ? null : stringRedisTemplate.opsForValue().multiGet(keys);
+        Map<Long, Integer> stocks = new HashMap<>(voucherIds.size());
+        if (values == null) {
+            return stocks;
+        }
+        for (int i = 0; i < values.size(); i++) {
+            String value = values.get(i);
+            if (value != null) {
+                stocks.merge(voucherIds.get(owners.get(i)), Integer.valueOf(value), Integer::sum);
+            }
+        }
+        return stocks;
+    }
+
+    public int shardsOf(Long voucherId) {
+        Integer n = shardCounts.get(voucherId);
+        if (n != null) {
+            return n;
+        }
+        String value = stringRedisTemplate.opsForValue().get(SECKILL_STOCK_SHARDS_KEY + voucherId);
+        if (value == null) {
+            // 没有分片信息，按未分片处理；不缓存，库存之后可能以分片的方式加载
+            return 1;
+        }
+        n = Integer.valueOf(value);
+        shardCounts.put(voucherId, n);
+        return n;
+    }
+
+    /**
+     * 第k个分片的key，只有一个分片时与未分片的key相同
+     */
+    public String shardKey(Long voucherId, int k, int shards) {
+        return shards <= 1 ? SECKILL_STOCK_KEY + voucherId : SECKILL_STOCK_KEY + voucherId + ":" + k;
+    }
+
+    private int route(Long userId, int shards) {
+        if (shards <= 1) {
+            return 0;
+        }
+        // 打散连续的用户id
+        return Math.floorMod(Long.hashCode(userId * 0x9E3779B97F4A7C15L), shards);
+    }
+}
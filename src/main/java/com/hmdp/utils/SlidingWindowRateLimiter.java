@@ -0,0 +1,46 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.IdUtil;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于redis的滑动窗口限流，多条规则在一次lua调用中完成校验
+ */
+@Component
+public class SlidingWindowRateLimiter {
+
+    private static final DefaultRedisScript<Long> SLIDING_WINDOW_SCRIPT;
+    static {
+        SLIDING_WINDOW_SCRIPT = new DefaultRedisScript<>();
+        SLIDING_WINDOW_SCRIPT.setLocation(new ClassPathResource("lua/sliding_window.lua"));
+        SLIDING_WINDOW_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public SlidingWindowRateLimiter(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 所有规则都未超限时记录本次请求并返回true，任一规则超限时不记录并返回false
+     */
+    public boolean tryAcquire(RateLimitRule... rules) {
+        List<String> keys = new ArrayList<>(rules.length);
+        List<String> args = new ArrayList<>(rules.length * 2 + 1);
+        args.add(IdUtil.fastSimpleUUID());
+        for (RateLimitRule rule : rules) {
+            keys.add(rule.getKey());
+            args.add(String.valueOf(rule.getLimit()));
+            args.add(String.valueOf(rule.getUnit().toMillis(rule.getWindow())));
+        }
+        Long result = stringRedisTemplate.execute(SLIDING_WINDOW_SCRIPT, keys, args.toArray());
+        return result != null && result == 0L;
+    }
+}
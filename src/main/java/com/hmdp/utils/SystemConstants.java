@@ -5,4 +5,21 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    public static final int COUNTER_FLUSH_BATCH_SIZE = 500;
+    public static final int COUNTER_FLUSH_MAX_ATTEMPTS = 5;
+    public static final int COMMENTS_CACHE_SIZE = 50;
+    public static final int HOT_COMMENTS_SIZE = 10;
+    public static final int CACHE_DB_LOAD_PERMITS = 32;
+    public static final long CACHE_DB_LOAD_WAIT_MILLIS = 200L;
+    public static final long CACHE_REBUILD_WAIT_MILLIS = 3000L;
+    public static final int ORDER_CACHE_SIZE = 100;
+    public static final long ORDER_PAY_TIMEOUT_MINUTES = 15L;
+    public static final int ORDER_CANCEL_BATCH_SIZE = 200;
+    public static final long ORDER_CANCEL_PROCESSING_TIMEOUT_MILLIS = 60000L;
+    public static final long SECKILL_WARM_UP_MINUTES = 5L;
+    public static final long SECKILL_TEAR_DOWN_MINUTES = 10L;
+    public static final int SECKILL_RECONCILE_CHUNK_SIZE = 200;
+    public static final long SECKILL_RECONCILE_DAYS = 1L;
+    public static final int SHOP_IMPORT_BATCH_SIZE = 500;
+    public static final int SHOP_IMPORT_MAX_ERRORS = 100;
 }
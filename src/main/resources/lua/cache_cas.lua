@@ -0,0 +1,13 @@
+-- 比较并替换缓存：缓存内容未变化时替换为新值并保留剩余过期时间，否则删除缓存
+local key = KEYS[1]
+if redis.call('get', key) ~= ARGV[1] then
+    redis.call('del', key)
+    return 0
+end
+local ttl = redis.call('pttl', key)
+if ttl > 0 then
+    redis.call('set', key, ARGV[2], 'px', ttl)
+else
+    redis.call('set', key, ARGV[2])
+end
+return 1
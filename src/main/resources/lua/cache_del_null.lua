@@ -0,0 +1,6 @@
+-- 删除缓存的空值：缓存内容为空值时删除，已缓存的数据不受影响
+-- KEYS[1]：缓存key
+if redis.call('get', KEYS[1]) == ' ' then
+    return redis.call('del', KEYS[1])
+end
+return 0
@@ -0,0 +1,15 @@
+-- 新增评论：最新评论缓存和热门评论缓存存在时写入并裁剪，同时标记缓存脏，阻止并发的旧数据回填
+-- 缓存中没有评论时存放的是空标记（空字符串），写入评论时一并移除
+local size = tonumber(ARGV[3])
+if redis.call('exists', KEYS[1]) == 1 then
+    redis.call('zrem', KEYS[1], '')
+    redis.call('zadd', KEYS[1], ARGV[1], ARGV[2])
+    redis.call('zremrangebyrank', KEYS[1], 0, -size - 1)
+end
+if redis.call('exists', KEYS[2]) == 1 then
+    redis.call('zrem', KEYS[2], '')
+    redis.call('zadd', KEYS[2], 0, ARGV[2])
+    redis.call('zremrangebyrank', KEYS[2], 0, -size - 1)
+end
+redis.call('set', KEYS[3], '1', 'EX', ARGV[4])
+return 1
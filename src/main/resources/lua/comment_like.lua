@@ -0,0 +1,35 @@
+-- 评论点赞：用最新的评论内容替换最新评论缓存和热门评论缓存中的旧内容
+local id = tonumber(ARGV[1])
+local liked = tonumber(ARGV[3])
+local size = tonumber(ARGV[4])
+-- 1. 最新评论缓存，score为评论id
+if redis.call('exists', KEYS[1]) == 1 then
+    local cur = redis.call('zrangebyscore', KEYS[1], id, id)
+    if #cur > 0 and (cjson.decode(cur[1]).liked or 0) < liked then
+        redis.call('zrem', KEYS[1], cur[1])
+        redis.call('zadd', KEYS[1], id, ARGV[2])
+    end
+end
+-- 2. 热门评论缓存，score为点赞数，只保留前size条
+if redis.call('exists', KEYS[2]) == 1 then
+    local members = redis.call('zrange', KEYS[2], 0, -1)
+    local stale = true
+    for _, m in ipairs(members) do
+        -- 跳过空标记
+        local c = m == '' and {} or cjson.decode(m)
+        if c.id == id then
+            if (c.liked or 0) >= liked then
+                stale = false
+            else
+                redis.call('zrem', KEYS[2], m)
+            end
+            break
+        end
+    end
+    if stale then
+        redis.call('zadd', KEYS[2], liked, ARGV[2])
+        redis.call('zremrangebyrank', KEYS[2], 0, -size - 1)
+    end
+end
+redis.call('set', KEYS[3], '1', 'EX', ARGV[5])
+return 1
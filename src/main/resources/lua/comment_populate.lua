@@ -0,0 +1,9 @@
+-- 回填评论缓存：缓存已存在或期间有写入（脏标记存在）时放弃回填；没有评论时由调用方传入空标记
+if redis.call('exists', KEYS[2]) == 1 or redis.call('exists', KEYS[1]) == 1 then
+    return 0
+end
+for i = 2, #ARGV, 2 do
+    redis.call('zadd', KEYS[1], ARGV[i], ARGV[i + 1])
+end
+redis.call('expire', KEYS[1], ARGV[1])
+return 1
@@ -0,0 +1,17 @@
+-- 领取到期的延迟任务：从队列中取出到期的任务，连同处理超时未确认的任务，一起移入处理中集合
+-- KEYS[1]：延迟队列；KEYS[2]：处理中集合；ARGV[1]：当前时间；ARGV[2]：最大数量；ARGV[3]：处理超时时间
+local now = tonumber(ARGV[1])
+local limit = tonumber(ARGV[2])
+local deadline = tonumber(ARGV[3])
+local items = redis.call('zrangebyscore', KEYS[2], 0, now, 'LIMIT', 0, limit)
+if #items < limit then
+    local due = redis.call('zrangebyscore', KEYS[1], 0, now, 'LIMIT', 0, limit - #items)
+    for _, item in ipairs(due) do
+        redis.call('zrem', KEYS[1], item)
+        table.insert(items, item)
+    end
+end
+for _, item in ipairs(items) do
+    redis.call('zadd', KEYS[2], deadline, item)
+end
+return items
@@ -0,0 +1,7 @@
+-- 看门狗续期：仍由持有者持有时重置过期时间
+-- KEYS[1]：锁的key；ARGV[1]：持有者标识；ARGV[2]：过期时间（毫秒）
+if redis.call('hexists', KEYS[1], ARGV[1]) == 1 then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 1
+end
+return 0
@@ -0,0 +1,11 @@
+-- 回填订单缓存：缓存已存在或期间有写入（脏标记存在）时放弃回填
+-- ARGV[1]：过期时间（秒）；ARGV[2]：缓存覆盖的最小订单id，0表示已包含全部订单；之后为订单id和订单json
+if redis.call('exists', KEYS[2]) == 1 or redis.call('exists', KEYS[1]) == 1 then
+    return 0
+end
+redis.call('hset', KEYS[1], 'min', ARGV[2])
+for i = 3, #ARGV, 2 do
+    redis.call('hset', KEYS[1], ARGV[i], ARGV[i + 1])
+end
+redis.call('expire', KEYS[1], ARGV[1])
+return 1
@@ -0,0 +1,7 @@
+-- 写入订单：用户的订单缓存存在时更新，同时标记缓存脏，阻止并发的旧数据回填
+-- KEYS[1]：订单缓存；KEYS[2]：脏标记；ARGV[1]：订单id；ARGV[2]：订单json；ARGV[3]：脏标记过期时间（秒）
+if redis.call('exists', KEYS[1]) == 1 then
+    redis.call('hset', KEYS[1], ARGV[1], ARGV[2])
+end
+redis.call('set', KEYS[2], '1', 'EX', ARGV[3])
+return 1
@@ -0,0 +1,5 @@
+-- 写入响应缓存：ETag和响应体存放在同一个hash中，一次读取
+-- KEYS[1]：响应缓存；ARGV[1]：ETag；ARGV[2]：响应体；ARGV[3]：过期时间（毫秒）
+redis.call('hset', KEYS[1], 'etag', ARGV[1], 'body', ARGV[2])
+redis.call('pexpire', KEYS[1], ARGV[3])
+return 1
@@ -0,0 +1,12 @@
+-- 秒杀预扣库存
+-- KEYS[1]：库存key
+-- 返回0表示扣减成功，1表示库存不足，2表示库存未加载到redis
+local stock = redis.call('get', KEYS[1])
+if not stock then
+    return 2
+end
+if tonumber(stock) <= 0 then
+    return 1
+end
+redis.call('decr', KEYS[1])
+return 0
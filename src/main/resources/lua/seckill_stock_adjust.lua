@@ -0,0 +1,7 @@
+-- 修正秒杀库存：库存仍为预期值时加上差值，保证同一次修正只执行一次
+-- KEYS[1]：库存key；ARGV[1]：预期的库存；ARGV[2]：差值
+if redis.call('get', KEYS[1]) ~= ARGV[1] then
+    return 0
+end
+redis.call('incrby', KEYS[1], ARGV[2])
+return 1
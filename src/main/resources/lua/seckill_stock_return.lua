@@ -0,0 +1,8 @@
+-- 归还秒杀库存：只归还已加载到redis的库存，未加载的以数据库为准
+-- KEYS[i]：库存key；ARGV[i]：归还数量
+for i, key in ipairs(KEYS) do
+    if redis.call('exists', key) == 1 then
+        redis.call('incrby', key, ARGV[i])
+    end
+end
+return 1
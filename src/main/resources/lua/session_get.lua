@@ -0,0 +1,11 @@
+-- 读取登录会话，剩余有效期低于阈值时才续期，避免每个请求都写redis
+-- KEYS[1]：会话key；ARGV[1]：会话有效期（毫秒）；ARGV[2]：续期间隔（毫秒）
+local session = redis.pcall('get', KEYS[1])
+if type(session) ~= 'string' then
+    -- 不存在，或者是旧版本的hash会话
+    return nil
+end
+if redis.call('pttl', KEYS[1]) < tonumber(ARGV[1]) - tonumber(ARGV[2]) then
+    redis.call('pexpire', KEYS[1], ARGV[1])
+end
+return session
@@ -0,0 +1,19 @@
+-- 滑动窗口限流：一次校验多个key，全部未超限才记录本次请求
+-- KEYS[i]：限流key；ARGV[1]：本次请求的唯一标识；ARGV[2i]、ARGV[2i+1]：第i个key的上限和窗口长度（毫秒）
+-- 返回0表示通过，返回i表示第i个key超限
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+for i, key in ipairs(KEYS) do
+    local limit = tonumber(ARGV[2 * i])
+    local window = tonumber(ARGV[2 * i + 1])
+    redis.call('zremrangebyscore', key, 0, now - window)
+    if redis.call('zcard', key) >= limit then
+        return i
+    end
+end
+for i, key in ipairs(KEYS) do
+    redis.call('zadd', key, now, ARGV[1])
+    redis.call('pexpire', key, tonumber(ARGV[2 * i + 1]))
+end
+return 0
@@ -0,0 +1,22 @@
+-- 图片引用计数，KEYS[1]为总引用计数，KEYS[2]为上传用户持有的引用计数，ARGV[1]为文件名，ARGV[2]为增量（1或-1）
+-- 释放时该用户没有持有这张图片的引用返回-1，否则返回剩余的总引用数
+local delta = tonumber(ARGV[2])
+if delta > 0 then
+    redis.call('hincrby', KEYS[2], ARGV[1], delta)
+    return redis.call('hincrby', KEYS[1], ARGV[1], delta)
+end
+local owned = tonumber(redis.call('hget', KEYS[2], ARGV[1]) or '0')
+if owned <= 0 then
+    return -1
+end
+if owned == 1 then
+    redis.call('hdel', KEYS[2], ARGV[1])
+else
+    redis.call('hincrby', KEYS[2], ARGV[1], -1)
+end
+local refs = redis.call('hincrby', KEYS[1], ARGV[1], -1)
+if refs <= 0 then
+    redis.call('hdel', KEYS[1], ARGV[1])
+    return 0
+end
+return refs
@@ -0,0 +1,7 @@
+-- 累加用户计数器并标记待刷回，计数器未初始化时返回0，由调用方从数据库初始化后重试
+if redis.call('exists', KEYS[1]) == 0 then
+    return 0
+end
+redis.call('hincrby', KEYS[1], ARGV[1], ARGV[2])
+redis.call('sadd', KEYS[2], ARGV[3])
+return 1
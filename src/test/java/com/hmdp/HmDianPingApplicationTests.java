@@ -18,6 +18,10 @@ class HmDianPingApplicationTests {
 
     private ExecutorService es = Executors.newFixedThreadPool(500);
 
+    @Test
+    void contextLoads() {
+    }
+
     @Test
     void testNextId() throws InterruptedException{
 
@@ -0,0 +1,41 @@
+package com.hmdp.service.impl;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 订单状态：1未支付 2已支付 3已核销 4已取消 5退款中 6已退款
+ */
+class VoucherOrderServiceImplTest {
+
+    @Test
+    void userTransitions() {
+        // 用户只能取消未支付的订单、为已支付的订单申请退款
+        assertEquals(1, VoucherOrderServiceImpl.transitionFrom(4, true));
+        assertEquals(2, VoucherOrderServiceImpl.transitionFrom(5, true));
+        assertNull(VoucherOrderServiceImpl.transitionFrom(1, true));
+        assertNull(VoucherOrderServiceImpl.transitionFrom(2, true));
+        assertNull(VoucherOrderServiceImpl.transitionFrom(3, true));
+        assertNull(VoucherOrderServiceImpl.transitionFrom(6, true));
+    }
+
+    @Test
+    void confirmTransitions() {
+        // 支付、核销、退款只能由支付回调或商家、管理员确认
+        assertEquals(1, VoucherOrderServiceImpl.transitionFrom(2, false));
+        assertEquals(2, VoucherOrderServiceImpl.transitionFrom(3, false));
+        assertEquals(5, VoucherOrderServiceImpl.transitionFrom(6, false));
+        assertNull(VoucherOrderServiceImpl.transitionFrom(1, false));
+        assertNull(VoucherOrderServiceImpl.transitionFrom(4, false));
+        assertNull(VoucherOrderServiceImpl.transitionFrom(5, false));
+    }
+
+    @Test
+    void unknownStatus() {
+        assertNull(VoucherOrderServiceImpl.transitionFrom(0, true));
+        assertNull(VoucherOrderServiceImpl.transitionFrom(7, false));
+        assertNull(VoucherOrderServiceImpl.transitionFrom(null, true));
+    }
+}
@@ -0,0 +1,76 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ClientIpResolverTest {
+
+    private final ClientIpResolver resolver = new ClientIpResolver(Arrays.asList("127.0.0.1", "10.0.0.0/8"));
+
+    private MockHttpServletRequest request(String remote, String forwardedFor) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(remote);
+        if (forwardedFor != null) {
+            request.addHeader("X-Forwarded-For", forwardedFor);
+        }
+        return request;
+    }
+
+    @Test
+    void untrustedPeerIgnoresHeader() {
+        // 客户端直连时伪造的请求头不生效
+        assertEquals("203.0.113.7", resolver.resolve(request("203.0.113.7", "1.1.1.1")));
+        assertEquals("203.0.113.7", resolver.resolve(request("203.0.113.7", null)));
+    }
+
+    @Test
+    void trustedPeerUsesForwardedClient() {
+        assertEquals("203.0.113.7", resolver.resolve(request("127.0.0.1", "203.0.113.7")));
+        // 网段内的代理
+        assertEquals("203.0.113.7", resolver.resolve(request("10.1.2.3", "203.0.113.7")));
+    }
+
+    @Test
+    void walksRightToLeftPastTrustedProxies() {
+        // 最左侧的地址由客户端伪造，取最右侧第一个不可信的地址
+        assertEquals("203.0.113.7",
+                resolver.resolve(request("127.0.0.1", "1.1.1.1, 203.0.113.7, 10.0.0.5, 10.20.30.40")));
+    }
+
+    @Test
+    void allHopsTrustedReturnsLeftmost() {
+        assertEquals("10.0.0.5", resolver.resolve(request("127.0.0.1", "10.0.0.5,10.0.0.6")));
+    }
+
+    @Test
+    void cidrBoundary() {
+        assertEquals("11.0.0.1", resolver.resolve(request("11.0.0.1", "203.0.113.7")));
+        assertEquals("203.0.113.7", resolver.resolve(request("10.255.255.255", "203.0.113.7")));
+    }
+
+    @Test
+    void blankOrMalformedHeader() {
+        assertEquals("127.0.0.1", resolver.resolve(request("127.0.0.1", "")));
+        assertEquals("127.0.0.1", resolver.resolve(request("127.0.0.1", " , ,")));
+        // 非法的值不作为客户端IP，使用最后一个可信代理的地址
+        assertEquals("127.0.0.1", resolver.resolve(request("127.0.0.1", "unknown")));
+        assertEquals("10.0.0.5", resolver.resolve(request("127.0.0.1", "203.0.113.7:443, 10.0.0.5")));
+        assertEquals("127.0.0.1", resolver.resolve(request("127.0.0.1", "<script>")));
+    }
+
+    @Test
+    void ipv6Client() {
+        assertEquals("2001:db8::1", resolver.resolve(request("127.0.0.1", "2001:db8::1")));
+    }
+
+    @Test
+    void noTrustedProxies() {
+        ClientIpResolver direct = new ClientIpResolver(Collections.emptyList());
+        assertEquals("127.0.0.1", direct.resolve(request("127.0.0.1", "203.0.113.7")));
+    }
+}
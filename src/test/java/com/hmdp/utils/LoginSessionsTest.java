@@ -0,0 +1,157 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_REVOKED_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class LoginSessionsTest {
+
+    private static final String SECRET = "0123456789abcdef0123456789abcdef";
+
+    private final Map<String, byte[]> redis = new HashMap<>();
+
+    private StringRedisTemplate template;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        RedisConnection connection = mock(RedisConnection.class, invocation -> {
+            if ("set".equals(invocation.getMethod().getName())) {
+                redis.put(new String((byte[]) invocation.getArgument(0), StandardCharsets.UTF_8), invocation.getArgument(1));
+            }
+            return null;
+        });
+        ZSetOperations<String, String> zSet = mock(ZSetOperations.class);
+        template = mock(StringRedisTemplate.class, invocation -> {
+            Object[] args = invocation.getArguments();
+            switch (invocation.getMethod().getName()) {
+                case "executePipelined":
+                    ((RedisCallback<Object>) args[0]).doInRedis(connection);
+                    return Collections.emptyList();
+                case "execute":
+                    // 读取会话的脚本，keys在第4个参数
+                    return redis.get(((List<String>) args[3]).get(0));
+                case "opsForZSet":
+                    return zSet;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private LoginSessions sessions(String mode, String secret, long ttlMinutes) {
+        return new LoginSessions(template, mock(RedisMessageListenerContainer.class), mode, secret, ttlMinutes);
+    }
+
+    private UserDTO user(String icon) {
+        UserDTO user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("用户_abc");
+        user.setIcon(icon);
+        return user;
+    }
+
+    @Test
+    void opaqueSessionRoundTrip() {
+        LoginSessions sessions = sessions("opaque", "", 1440);
+        String token = sessions.issue(user("/imgs/icons/a.jpg"));
+
+        assertTrue(redis.containsKey(LOGIN_USER_KEY + token));
+        assertEquals(user("/imgs/icons/a.jpg"), sessions.resolve(token));
+        // null字段原样保留
+        String other = sessions.issue(user(null));
+        assertEquals(user(null), sessions.resolve(other));
+        assertNull(sessions.resolve("unknown"));
+    }
+
+    @Test
+    void opaqueSessionRejectsTruncatedValue() {
+        LoginSessions sessions = sessions("opaque", "", 1440);
+        String token = sessions.issue(user("/imgs/icons/a.jpg"));
+        byte[] session = redis.get(LOGIN_USER_KEY + token);
+        redis.put(LOGIN_USER_KEY + token, Arrays.copyOf(session, session.length - 3));
+
+        assertNull(sessions.resolve(token));
+    }
+
+    @Test
+    void signedTokenRoundTrip() {
+        LoginSessions sessions = sessions("signed", SECRET, 1440);
+        String token = sessions.issue(user("/imgs/icons/a.jpg"));
+
+        assertTrue(redis.isEmpty());
+        assertEquals(user("/imgs/icons/a.jpg"), sessions.resolve(token));
+        // opaque模式的节点配置了相同的密钥，同样可以识别
+        assertEquals(user("/imgs/icons/a.jpg"), sessions("opaque", SECRET, 1440).resolve(token));
+    }
+
+    @Test
+    void signedTokenRejectsTampering() {
+        LoginSessions sessions = sessions("signed", SECRET, 1440);
+        String token = sessions.issue(user("/imgs/icons/a.jpg"));
+        int index = token.indexOf('.');
+        String payload = token.substring(0, index);
+        char last = payload.charAt(payload.length() - 1);
+        String tampered = payload.substring(0, payload.length() - 1) + (last == 'A' ? 'B' : 'A') + token.substring(index);
+
+        assertNull(sessions.resolve(tampered));
+        assertNull(sessions.resolve(payload + "."));
+        assertNull(sessions.resolve("!!." + token.substring(index + 1)));
+        assertNull(sessions("signed", SECRET.replace('0', 'x'), 1440).resolve(token));
+        // 未配置密钥的节点不接受签名token
+        assertNull(sessions("opaque", "", 1440).resolve(token));
+    }
+
+    @Test
+    void signedTokenExpires() {
+        LoginSessions sessions = sessions("signed", SECRET, 0);
+        String token = sessions.issue(user(null));
+
+        assertNull(sessions.resolve(token));
+    }
+
+    @Test
+    void signedTokenRevocation() {
+        LoginSessions sessions = sessions("signed", SECRET, 1440);
+        LoginSessions otherNode = sessions("signed", SECRET, 1440);
+        String token = sessions.issue(user(null));
+        assertNotNull(otherNode.resolve(token));
+
+        sessions.revoke(token);
+        assertNull(sessions.resolve(token));
+        verify(template.opsForZSet()).add(anyString(), anyString(), anyDouble());
+
+        // 其他节点通过pub/sub收到撤销消息
+        ArgumentCaptor<String> message = ArgumentCaptor.forClass(String.class);
+        verify(template).convertAndSend(eq(LOGIN_REVOKED_CHANNEL), message.capture());
+        Message received = mock(Message.class);
+        when(received.getBody()).thenReturn(message.getValue().getBytes(StandardCharsets.UTF_8));
+        otherNode.onMessage(received, null);
+        assertNull(otherNode.resolve(token));
+    }
+
+    @Test
+    void signedModeRequiresSecret() {
+        assertThrows(IllegalArgumentException.class, () -> sessions("signed", "short", 1440));
+    }
+}
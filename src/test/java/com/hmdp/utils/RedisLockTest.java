@@ -0,0 +1,248 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static com.hmdp.utils.RedisConstants.LOCK_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 用内存中的map模拟redis中的锁，解锁时的publish直接回调RedisLockClient.onMessage
+ */
+class RedisLockTest {
+
+    /**
+     * key为锁的key，value为 持有者 -> 重入次数
+     */
+    private final Map<String, Map<String, Integer>> redis = new HashMap<>();
+
+    private RedisLockClient client;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class, invocation -> {
+            if (!"execute".equals(invocation.getMethod().getName())) {
+                return null;
+            }
+            Object[] args = invocation.getArguments();
+            String script = ((RedisScript<?>) args[0]).getScriptAsString();
+            List<String> keys = (List<String>) args[1];
+            String owner = (String) args[2];
+            if (script.contains("publish")) {
+                return release(keys.get(0), keys.get(1), owner);
+            }
+            if (script.contains("hincrby")) {
+                return acquire(keys.get(0), owner);
+            }
+            return renew(keys.get(0), owner);
+        });
+        client = new RedisLockClient(template, mock(RedisMessageListenerContainer.class));
+    }
+
+    @Test
+    void reentrantLockCountsHolds() {
+        ILock lock = client.getLock("order:1");
+        assertTrue(lock.tryLock(0, TimeUnit.SECONDS));
+        assertTrue(client.getLock("order:1").tryLock(0, TimeUnit.SECONDS));
+        assertEquals(2, holds("order:1"));
+
+        lock.unlock();
+        assertEquals(1, holds("order:1"));
+        assertFalse(renewals().isEmpty());
+
+        lock.unlock();
+        assertNull(redis.get(LOCK_KEY + "order:1"));
+        assertTrue(renewals().isEmpty());
+    }
+
+    @Test
+    void otherThreadCannotAcquireOrRelease() throws Exception {
+        ILock lock = client.getLock("order:1");
+        assertTrue(lock.tryLock(0, TimeUnit.SECONDS));
+
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            ILock otherLock = other.submit(() -> client.getLock("order:1")).get();
+            assertFalse(other.submit(() -> otherLock.tryLock(0, TimeUnit.SECONDS)).get());
+            ExecutionException e = assertThrows(ExecutionException.class, () -> other.submit(otherLock::unlock).get());
+            assertTrue(e.getCause() instanceof IllegalMonitorStateException);
+        } finally {
+            other.shutdownNow();
+        }
+        // 非持有者的释放不影响持有者
+        assertEquals(1, holds("order:1"));
+        lock.unlock();
+        assertThrows(IllegalMonitorStateException.class, lock::unlock);
+    }
+
+    @Test
+    void watchdogStopsAfterRelease() {
+        ILock lock = client.getLock("order:1");
+        assertTrue(lock.tryLock(0, TimeUnit.SECONDS));
+        Object renewal = renewals().get(LOCK_KEY + "order:1");
+        assertNotNull(renewal);
+        ScheduledFuture<?> future = (ScheduledFuture<?>) ReflectionTestUtils.getField(renewal, "future");
+
+        lock.unlock();
+        assertTrue(renewals().isEmpty());
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    void fixedLeaseHasNoWatchdog() {
+        ILock lock = client.getLock("order:1");
+        assertTrue(lock.tryLock(0, 10, TimeUnit.SECONDS));
+        assertTrue(renewals().isEmpty());
+        lock.unlock();
+    }
+
+    @Test
+    void handoffLockIsNotReentrant() throws Exception {
+        ILock first = client.getHandoffLock("cache:shop:1");
+        assertTrue(first.tryLock(0, TimeUnit.SECONDS));
+        // 同一线程再次获取也失败，线程池复用线程时仍然互斥
+        assertFalse(client.getHandoffLock("cache:shop:1").tryLock(0, TimeUnit.SECONDS));
+
+        // 交给其他线程释放
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            other.submit(first::unlock).get();
+        } finally {
+            other.shutdownNow();
+        }
+        assertNull(redis.get(LOCK_KEY + "cache:shop:1"));
+        assertTrue(renewals().isEmpty());
+    }
+
+    @Test
+    void waitingLockAcquiresAfterRelease() throws Exception {
+        ILock lock = client.getLock("order:1");
+        assertTrue(lock.tryLock(0, TimeUnit.SECONDS));
+
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> acquired = other.submit(() -> {
+                ILock otherLock = client.getLock("order:1");
+                boolean ok = otherLock.tryLock(5, TimeUnit.SECONDS);
+                if (ok) {
+                    otherLock.unlock();
+                }
+                return ok;
+            });
+            // 等待者订阅之后再释放
+            while (((Map<?, ?>) ReflectionTestUtils.getField(client, "waiters")).isEmpty()) {
+                Thread.sleep(5);
+            }
+            long begin = System.currentTimeMillis();
+            lock.unlock();
+            assertTrue(acquired.get(5, TimeUnit.SECONDS));
+            // 由解锁通知唤醒，而不是等到锁过期
+            assertTrue(System.currentTimeMillis() - begin < 2000);
+        } finally {
+            other.shutdownNow();
+        }
+        assertTrue(((Map<?, ?>) ReflectionTestUtils.getField(client, "waiters")).isEmpty());
+    }
+
+    @Test
+    void waiterReturnsForSignalAfterSeenVersion() throws Exception {
+        RedisLockClient.Waiter waiter = new RedisLockClient.Waiter();
+        long seen = waiter.version();
+        // 读取版本号之后、等待之前的通知不会丢失
+        waiter.signalAll();
+        long begin = System.currentTimeMillis();
+        waiter.await(seen, 5000);
+        assertTrue(System.currentTimeMillis() - begin < 1000);
+        assertEquals(seen + 1, waiter.version());
+    }
+
+    @Test
+    void waiterDoesNotAccumulateSignals() throws Exception {
+        RedisLockClient.Waiter waiter = new RedisLockClient.Waiter();
+        waiter.signalAll();
+        waiter.signalAll();
+        // 之前的通知不会让之后的等待立即返回
+        long seen = waiter.version();
+        long begin = System.currentTimeMillis();
+        waiter.await(seen, 100);
+        assertTrue(System.currentTimeMillis() - begin >= 100);
+    }
+
+    @Test
+    void waiterWakesAllOnSignal() throws Exception {
+        RedisLockClient.Waiter waiter = new RedisLockClient.Waiter();
+        long seen = waiter.version();
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            CountDownLatch started = new CountDownLatch(3);
+            CountDownLatch woken = new CountDownLatch(3);
+            for (int i = 0; i < 3; i++) {
+                pool.submit(() -> {
+                    started.countDown();
+                    waiter.await(seen, 5000);
+                    woken.countDown();
+                    return null;
+                });
+            }
+            started.await();
+            Thread.sleep(50);
+            waiter.signalAll();
+            assertTrue(woken.await(1, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private synchronized Long acquire(String key, String owner) {
+        Map<String, Integer> holders = redis.get(key);
+        if (holders == null || holders.containsKey(owner)) {
+            redis.computeIfAbsent(key, k -> new HashMap<>()).merge(owner, 1, Integer::sum);
+            return null;
+        }
+        return TimeUnit.SECONDS.toMillis(30);
+    }
+
+    private Long release(String key, String channel, String owner) {
+        synchronized (this) {
+            Map<String, Integer> holders = redis.get(key);
+            if (holders == null || !holders.containsKey(owner)) {
+                return null;
+            }
+            if (holders.merge(owner, -1, Integer::sum) > 0) {
+                return 0L;
+            }
+            redis.remove(key);
+        }
+        Message message = mock(Message.class);
+        when(message.getChannel()).thenReturn(channel.getBytes(StandardCharsets.UTF_8));
+        client.onMessage(message, null);
+        return 1L;
+    }
+
+    private synchronized Long renew(String key, String owner) {
+        Map<String, Integer> holders = redis.get(key);
+        return holders != null && holders.containsKey(owner) ? 1L : 0L;
+    }
+
+    private synchronized int holds(String name) {
+        return redis.get(LOCK_KEY + name).values().iterator().next();
+    }
+
+    private Map<?, ?> renewals() {
+        return (Map<?, ?>) ReflectionTestUtils.getField(client, "renewals");
+    }
+}
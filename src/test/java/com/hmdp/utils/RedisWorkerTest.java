@@ -0,0 +1,62 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RedisWorkerTest {
+
+    @Test
+    void composeRoundTrip() {
+        long timestamp = 123456789L;
+        for (int shard : new int[]{0, 1, 17, RedisWorker.MAX_SHARDS - 1}) {
+            long id = RedisWorker.compose(timestamp, 42, shard);
+            assertEquals(shard, RedisWorker.shardOf(id));
+            // 时间戳和序列号不受分片号影响
+            assertEquals(timestamp, id >>> 32);
+            assertEquals(42, (id >>> 8) & 0xFFFFFF);
+        }
+    }
+
+    @Test
+    void composeRejectsCountOverflow() {
+        long max = (1L << 24) - 1;
+        long id = RedisWorker.compose(1, max, 3);
+        assertEquals(1, id >>> 32);
+        assertEquals(3, RedisWorker.shardOf(id));
+        assertThrows(IllegalStateException.class, () -> RedisWorker.compose(1, max + 1, 3));
+    }
+
+    @Test
+    void composeRejectsInvalidShard() {
+        assertThrows(IllegalArgumentException.class, () -> RedisWorker.compose(1, 1, -1));
+        assertThrows(IllegalArgumentException.class, () -> RedisWorker.compose(1, 1, RedisWorker.MAX_SHARDS));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void nextIdCarriesShard() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(template.opsForValue()).thenReturn(ops);
+        when(ops.increment(anyString())).thenReturn(7L);
+
+        long id = new RedisWorker(template).nextId("order", 5);
+        assertEquals(5, RedisWorker.shardOf(id));
+        assertEquals(7, (id >>> 8) & 0xFFFFFF);
+    }
+
+    @Test
+    void shardOfOrderRejectsOutOfRangeShards() {
+        long id = RedisWorker.compose(1, 1, 6);
+        assertEquals(6, new OrderSharding(8).shardOfOrder(id));
+        assertEquals(-1, new OrderSharding(4).shardOfOrder(id));
+        // 未分表时所有订单都在同一张表，包括分片号之前生成的旧id
+        assertEquals(0, new OrderSharding(1).shardOfOrder(id));
+    }
+}
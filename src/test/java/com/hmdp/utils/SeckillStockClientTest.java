@@ -0,0 +1,163 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_SHARDS_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 用内存中的map模拟redis，验证分片拆分、扣减和归还
+ */
+class SeckillStockClientTest {
+
+    private final Map<String, String> redis = new HashMap<>();
+
+    private SeckillSoldOutFlags soldOutFlags;
+
+    private SeckillStockClient client;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisConnection connection = mock(StringRedisConnection.class, invocation -> {
+            Object[] args = invocation.getArguments();
+            switch (invocation.getMethod().getName()) {
+                case "set":
+                    redis.put((String) args[0], (String) args[1]);
+                    return true;
+                case "eval":
+                    // 归还库存的脚本，参数为 key, count
+                    returnStock((String) args[3], Long.parseLong((String) args[4]));
+                    return 1L;
+                default:
+                    return null;
+            }
+        });
+        ValueOperations<String, String> ops = mock(ValueOperations.class, invocation -> {
+            Object[] args = invocation.getArguments();
+            switch (invocation.getMethod().getName()) {
+                case "get":
+                    return redis.get(args[0]);
+                case "multiGet":
+                    return ((Collection<String>) args[0]).stream().map(redis::get).collect(Collectors.toList());
+                default:
+                    return null;
+            }
+        });
+        StringRedisTemplate template = mock(StringRedisTemplate.class, invocation -> {
+            Object[] args = invocation.getArguments();
+            switch (invocation.getMethod().getName()) {
+                case "executePipelined":
+                    ((RedisCallback<Object>) args[0]).doInRedis(connection);
+                    return Collections.emptyList();
+                case "execute":
+                    // 扣减库存的脚本
+                    assertTrue(((RedisScript<?>) args[0]).getScriptAsString().contains("decr"));
+                    return deduct(((List<String>) args[1]).get(0));
+                case "opsForValue":
+                    return ops;
+                case "hasKey":
+                    return redis.containsKey(args[0]);
+                default:
+                    return null;
+            }
+        });
+        soldOutFlags = mock(SeckillSoldOutFlags.class);
+        client = new SeckillStockClient(template, soldOutFlags);
+    }
+
+    @Test
+    void loadSplitsStockAcrossShards() {
+        client.load(1L, 10, 3);
+
+        assertEquals("4", redis.get(SECKILL_STOCK_KEY + "1:0"));
+        assertEquals("3", redis.get(SECKILL_STOCK_KEY + "1:1"));
+        assertEquals("3", redis.get(SECKILL_STOCK_KEY + "1:2"));
+        assertEquals("3", redis.get(SECKILL_STOCK_SHARDS_KEY + 1));
+        assertEquals(10, client.getStocks(Collections.singletonList(1L)).get(1L));
+        verify(soldOutFlags).clear(1L);
+    }
+
+    @Test
+    void singleShardUsesPlainKey() {
+        client.load(2L, 5, 1);
+
+        assertEquals("5", redis.get(SECKILL_STOCK_KEY + 2));
+        assertFalse(client.loadIfAbsent(2L, 100));
+        assertEquals("5", redis.get(SECKILL_STOCK_KEY + 2));
+    }
+
+    @Test
+    void deductFallsBackToOtherShardsUntilSoldOut() {
+        // 库存比分片数少，部分分片为0，所有用户仍能扣到剩余的库存
+        client.load(3L, 2, 4);
+
+        int deducted = 0;
+        for (long userId = 1; userId <= 6; userId++) {
+            long result = client.tryDeduct(3L, userId);
+            if (result == SeckillStockClient.DEDUCTED) {
+                deducted++;
+            } else {
+                assertEquals(SeckillStockClient.SOLD_OUT, result);
+            }
+        }
+        assertEquals(2, deducted);
+        assertEquals(0, client.getStocks(Collections.singletonList(3L)).get(3L));
+        verify(soldOutFlags, atLeastOnce()).markSoldOut(3L);
+    }
+
+    @Test
+    void deductNotLoaded() {
+        assertEquals(SeckillStockClient.NOT_LOADED, client.tryDeduct(4L, 1L));
+        verify(soldOutFlags, never()).markSoldOut(4L);
+    }
+
+    @Test
+    void returnStockRestoresTotal() {
+        client.load(5L, 3, 4);
+        List<Long> buyers = new ArrayList<>();
+        for (long userId = 1; buyers.size() < 3; userId++) {
+            if (client.tryDeduct(5L, userId) == SeckillStockClient.DEDUCTED) {
+                buyers.add(userId);
+            }
+        }
+        assertEquals(0, client.getStocks(Collections.singletonList(5L)).get(5L));
+
+        Map<Long, List<Long>> returns = new HashMap<>();
+        returns.put(5L, buyers);
+        // 未加载到redis的券不归还
+        returns.put(6L, Collections.singletonList(1L));
+        client.returnStock(returns);
+
+        assertEquals(3, client.getStocks(Collections.singletonList(5L)).get(5L));
+        assertFalse(redis.containsKey(SECKILL_STOCK_KEY + 6));
+        verify(soldOutFlags).clear(6L);
+    }
+
+    private long deduct(String key) {
+        String stock = redis.get(key);
+        if (stock == null) {
+            return SeckillStockClient.NOT_LOADED;
+        }
+        if (Long.parseLong(stock) <= 0) {
+            return SeckillStockClient.SOLD_OUT;
+        }
+        redis.put(key, String.valueOf(Long.parseLong(stock) - 1));
+        return SeckillStockClient.DEDUCTED;
+    }
+
+    private void returnStock(String key, long count) {
+        redis.computeIfPresent(key, (k, v) -> String.valueOf(Long.parseLong(v) + count));
+    }
+}